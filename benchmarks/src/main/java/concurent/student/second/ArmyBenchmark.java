@@ -0,0 +1,68 @@
+package concurent.student.second;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Picking targets from an army and removing the fallen ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArmyBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int unitsPerBase;
+
+    private Army army;
+    private SplittableRandom random;
+
+    @Setup
+    public void setUp() {
+        army = Fixtures.armedBases(Fixtures.silentWorld(42), unitsPerBase)[0].getArmy();
+        random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public Personnel randomMember() {
+        return army.randomMember(random);
+    }
+
+    /**
+     * Finds the member nearest to a random point around the base of the army.
+     */
+    @Benchmark
+    public Personnel nearestMember() {
+        Base base = army.randomMember(random).getOwner();
+        float reach = 2 * Battlefield.SPAWN_RADIUS;
+        return army.nearestMember(base.getX() + (random.nextFloat() - 0.5f) * reach,
+                base.getY() + (random.nextFloat() - 0.5f) * reach);
+    }
+
+    /**
+     * Removes a random member and puts it back, so the army keeps its size.
+     */
+    @Benchmark
+    public Personnel removeRandomMember() {
+        Personnel p = army.randomMember(random);
+        army.remove(p);
+        army.add(p);
+        return p;
+    }
+
+}
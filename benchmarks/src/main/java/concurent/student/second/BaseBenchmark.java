@@ -0,0 +1,59 @@
+package concurent.student.second;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up free peasants and buildings of a base that has grown big.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaseBenchmark {
+
+    // number of peasants and of buildings of the base
+    @Param({"10", "1000", "100000"})
+    public int units;
+
+    private Base base;
+
+    @Setup
+    public void setUp() {
+        base = Fixtures.idleBase("Horde", Fixtures.silentWorld(42));
+        for (int i = base.getPeasants().size(); i < units; i++) {
+            Peasant p = Peasant.createPeasant(base);
+            base.getPeasants().add(p);
+            base.releasePeasant(p);
+        }
+        for (int i = 0; i < units; i++) {
+            base.addBuilding(Building.createBuilding(UnitType.FARM, base));
+        }
+    }
+
+    @Benchmark
+    public Peasant claimAndReleasePeasant() {
+        Peasant p = base.awaitFreePeasant();
+        p.unclaim();
+        return p;
+    }
+
+    @Benchmark
+    public boolean hasEnoughBuilding() {
+        return base.hasEnoughBuilding(UnitType.FARM, units);
+    }
+
+}
@@ -0,0 +1,50 @@
+package concurent.student.second;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Several attackers hitting the same unit at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class DamageBenchmark {
+
+    private Personnel target;
+
+    @Setup
+    public void setUp() {
+        target = Fixtures.armedBases(Fixtures.silentWorld(42), 1)[0].getArmy().toArray()[0];
+    }
+
+    /**
+     * The target is healed before every iteration, so it never dies and every hit takes the same path.
+     */
+    @Setup(Level.Iteration)
+    public void heal() {
+        target.setHealth(Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void focusedHit() {
+        target.loseHealth(1);
+    }
+
+}
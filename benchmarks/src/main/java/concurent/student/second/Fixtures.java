@@ -0,0 +1,44 @@
+package concurent.student.second;
+
+/**
+ * Builds the game objects the benchmarks work on, in simulated time and
+ * with a silent log, so neither sleeping nor printing is measured.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static World silentWorld(long seed) {
+        return new World(SimulationClock.simulated(), seed, GameLog.silent());
+    }
+
+    /**
+     * Creates a base whose starting peasants are not harvesting,
+     * so the base does not change on its own.
+     */
+    static Base idleBase(String name, World world) {
+        Base[] base = new Base[1];
+        world.getClock().run(() -> {
+            base[0] = new Base(name, world);
+            for (Peasant p : base[0].getPeasants()) {
+                p.stopHarvesting();
+            }
+        });
+        return base[0];
+    }
+
+    /**
+     * Creates two idle bases with the given number of footmen in their armies.
+     */
+    static Base[] armedBases(World world, int unitsPerBase) {
+        Base first = idleBase("Horde", world);
+        Base second = idleBase("Allience", world);
+        for (int i = 0; i < unitsPerBase; i++) {
+            first.getArmy().add(Footman.createFootman(first));
+            second.getArmy().add(Footman.createFootman(second));
+        }
+        return new Base[] {first, second};
+    }
+
+}
@@ -0,0 +1,66 @@
+package concurent.student.second;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full free-for-all match of many factions in simulated time,
+ * and a round-robin tournament of them spread over every core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FreeForAllBenchmark {
+
+    @Param({"4", "16", "64"})
+    public int factionCount;
+
+    private String[] factions;
+    private UnitExecutor executor;
+    private long seed;
+
+    @Setup
+    public void setUp() {
+        factions = new String[factionCount];
+        for (int i = 0; i < factionCount; i++) {
+            factions[i] = "Faction " + (i + 1);
+        }
+        executor = UnitExecutor.create();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public MatchResult freeForAll() {
+        World world = new World(new DiscreteEventClock(executor), seed++, GameLog.silent());
+        Match match = new Match(world, factions);
+        match.setTimeBudget(BatchRunner.DEFAULT_TIME_BUDGET);
+        return match.play();
+    }
+
+    @Benchmark
+    public Tournament.Standings tournament() {
+        return new Tournament(Arrays.asList(factions), Runtime.getRuntime().availableProcessors(), seed++)
+                .run();
+    }
+
+}
@@ -0,0 +1,37 @@
+package concurent.student.second;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full match, preparation and war, in simulated time.
+ * What is measured is the real time the simulation itself takes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchBenchmark {
+
+    private long seed;
+
+    @Benchmark
+    public MatchResult play() {
+        Match match = new Match(Fixtures.silentWorld(seed++));
+        // a straggler would distort the whole iteration
+        match.setTimeBudget(BatchRunner.DEFAULT_TIME_BUDGET);
+        return match.play();
+    }
+
+}
@@ -0,0 +1,81 @@
+package concurent.student.second;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The way of a unit across a rocky battlefield: looked up in the shared flow
+ * field of the destination, against spreading a new field as far as a single unit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathfinderBenchmark {
+
+    private static final int POINTS = 4096;
+
+    private Battlefield battlefield;
+    private float[] fromX;
+    private float[] fromY;
+    private float toX;
+    private float toY;
+    private int destination;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        battlefield = new Battlefield(Battlefield.DEFAULT_SIZE, Battlefield.DEFAULT_SIZE, new SplittableRandom(42));
+        for (int base = 0; base < 4; base++) {
+            battlefield.foundBase(base);
+        }
+        SplittableRandom random = new SplittableRandom(7);
+        fromX = new float[POINTS];
+        fromY = new float[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            fromX[i] = random.nextFloat() * battlefield.getWidth();
+            fromY[i] = random.nextFloat() * battlefield.getHeight();
+        }
+        // the front between the first two bases
+        toX = (battlefield.getBaseX(0) + battlefield.getBaseX(1)) / 2;
+        toY = (battlefield.getBaseY(0) + battlefield.getBaseY(1)) / 2;
+        destination = (int) (toY / Battlefield.TILE_SIZE) * battlefield.getColumns() + (int) (toX / Battlefield.TILE_SIZE);
+        while (battlefield.isBlocked(destination)) {
+            destination++;
+        }
+    }
+
+    /**
+     * One unit of an army marching to the front, the field is computed once and kept.
+     */
+    @Benchmark
+    public int travelTime() {
+        int i = next++ & (POINTS - 1);
+        return battlefield.travelTime(fromX[i], fromY[i], toX, toY);
+    }
+
+    /**
+     * What every unit would pay on its own, without sharing the field.
+     */
+    @Benchmark
+    public int computeField() {
+        int i = next++ & (POINTS - 1);
+        FlowField field = new FlowField(battlefield, destination);
+        return field.cost((int) (fromY[i] / Battlefield.TILE_SIZE) * battlefield.getColumns()
+                + (int) (fromX[i] / Battlefield.TILE_SIZE));
+    }
+
+}
@@ -0,0 +1,66 @@
+package concurent.student.second;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Harvesters and producers hitting the resources of one base.
+ * The resources are shared by every benchmark thread, so the 8 threads
+ * contend for them; -t overrides the contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ResourcesBenchmark {
+
+    // -1 adds every harvest to the totals right away, otherwise striped
+    @Param({"-1", "10"})
+    public long maxStaleness;
+
+    private Resources resources;
+
+    @Setup
+    public void setUp() {
+        resources = new Resources(SimulationClock.simulated());
+        resources.setMaxStaleness(maxStaleness);
+    }
+
+    @Benchmark
+    public void addGold() {
+        resources.addGold(10);
+    }
+
+    @Benchmark
+    public void addAndRemove() {
+        resources.addGold(10);
+        resources.removeCost(10, 0);
+    }
+
+    @Benchmark
+    public boolean reserveAndRollback() {
+        resources.addGold(UnitType.FOOTMAN.goldCost);
+        Resources.Reservation cost = resources.tryReserve(UnitType.FOOTMAN.goldCost, 0, 0);
+        if (cost == null) {
+            return false;
+        }
+        cost.rollback();
+        return true;
+    }
+
+}
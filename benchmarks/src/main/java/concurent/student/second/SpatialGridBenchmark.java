@@ -0,0 +1,131 @@
+package concurent.student.second;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the nearest enemy of a soldier in a {@link SpatialGrid} of the enemy army,
+ * from the own army across the battlefield, from inside the enemy army, and after
+ * the front half of the enemy army fell; with a scan of every enemy to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialGridBenchmark {
+
+    @Param({"50000"})
+    public int unitsPerSide;
+
+    private float[] ownX;
+    private float[] ownY;
+    private float[] enemyX;
+    private float[] enemyY;
+    private SpatialGrid enemies;
+    private SpatialGrid thinned;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Base[] bases = Fixtures.armedBases(Fixtures.silentWorld(42), unitsPerSide);
+        Personnel[] own = bases[0].getArmy().toArray();
+        Personnel[] enemy = bases[1].getArmy().toArray();
+        ownX = new float[own.length];
+        ownY = new float[own.length];
+        for (int i = 0; i < own.length; i++) {
+            ownX[i] = own[i].getX();
+            ownY[i] = own[i].getY();
+        }
+        enemyX = new float[enemy.length];
+        enemyY = new float[enemy.length];
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < enemy.length; i++) {
+            enemyX[i] = enemy[i].getX();
+            enemyY[i] = enemy[i].getY();
+            minX = Math.min(minX, enemyX[i]);
+            minY = Math.min(minY, enemyY[i]);
+            maxX = Math.max(maxX, enemyX[i]);
+            maxY = Math.max(maxY, enemyY[i]);
+        }
+        enemies = SpatialGrid.covering(minX, minY, maxX, maxY, enemy.length);
+        thinned = SpatialGrid.covering(minX, minY, maxX, maxY, enemy.length);
+        for (int i = 0; i < enemy.length; i++) {
+            enemies.insert(i, enemyX[i], enemyY[i]);
+            thinned.insert(i, enemyX[i], enemyY[i]);
+        }
+        // the enemies closer to the own base than their own one fell
+        for (int i = 0; i < enemy.length; i++) {
+            if (distance(enemyX[i], enemyY[i], bases[0]) < distance(enemyX[i], enemyY[i], bases[1])
+                    || new SplittableRandom(i).nextBoolean() && thinned.size() > enemy.length / 2) {
+                thinned.remove(i);
+            }
+        }
+    }
+
+    private static float distance(float x, float y, Base base) {
+        float dx = x - base.getX();
+        float dy = y - base.getY();
+        return dx * dx + dy * dy;
+    }
+
+    private int nextUnit() {
+        int unit = next;
+        next = unit + 1 == unitsPerSide ? 0 : unit + 1;
+        return unit;
+    }
+
+    @Benchmark
+    public int nearestAcross() {
+        int unit = nextUnit();
+        return enemies.nearest(ownX[unit], ownY[unit]);
+    }
+
+    @Benchmark
+    public int nearestWithin() {
+        int unit = nextUnit();
+        return enemies.nearest(enemyX[unit], enemyY[unit]);
+    }
+
+    @Benchmark
+    public int nearestAcrossThinned() {
+        int unit = nextUnit();
+        return thinned.nearest(ownX[unit], ownY[unit]);
+    }
+
+    @Benchmark
+    public int scanAcross() {
+        int unit = nextUnit();
+        float x = ownX[unit];
+        float y = ownY[unit];
+        int nearest = -1;
+        float best = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < enemyX.length; i++) {
+            float dx = enemyX[i] - x;
+            float dy = enemyY[i] - y;
+            float d = dx * dx + dy * dy;
+            if (d < best) {
+                best = d;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+}
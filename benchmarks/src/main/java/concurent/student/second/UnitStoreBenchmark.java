@@ -0,0 +1,58 @@
+package concurent.student.second;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Summing the health of an army, through the columns of the {@link UnitStore}
+ * and through the personnel one by one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnitStoreBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int unitsPerBase;
+
+    private Base base;
+    private Personnel[] army;
+
+    @Setup
+    public void setUp() {
+        base = Fixtures.armedBases(Fixtures.silentWorld(42), unitsPerBase)[0];
+        army = base.getArmy().toArray();
+    }
+
+    @Benchmark
+    public long storeScan() {
+        return base.getWorld().getUnits().totalHealth(base.getStoreId());
+    }
+
+    @Benchmark
+    public long personnelScan() {
+        long total = 0;
+        for (Personnel p : army) {
+            int health = p.getHealth();
+            if (health > 0) {
+                total += health;
+            }
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,52 @@
+package concurent.student.second;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole war between two armies of footmen, resolved by the {@link CombatEngine}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WarBenchmark {
+
+    @Param({"1000", "100000"})
+    public int unitsPerBase;
+
+    // threads the engine splits the big ticks between
+    @Param({"1", "4"})
+    public int threads;
+
+    private World world;
+    private Base[] bases;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        world = Fixtures.silentWorld(42);
+        bases = Fixtures.armedBases(world, unitsPerBase);
+    }
+
+    @Benchmark
+    public WarResult goToWar() {
+        WarResult[] result = new WarResult[1];
+        world.getClock().run(() -> result[0] = bases[0].goToWar(bases[1], threads));
+        return result[0];
+    }
+
+}
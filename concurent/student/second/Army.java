@@ -0,0 +1,256 @@
+package concurent.student.second;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.locks.StampedLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * The personnel of a base that is called to arms.
+ *
+ * Members are kept in an array and every member remembers its position,
+ * so picking a random member and removing a fallen one (by moving the last
+ * member into its place) both take constant time. Picking a random member
+ * does not block, it is retried if the army changed in the meantime.
+ * Iterating works on a snapshot, so members can die during the iteration.
+ *
+ * The places of the members are indexed in a {@link SpatialGrid} by their
+ * position in the array, so the member nearest to a point is found by
+ * looking at the few cells around it instead of at every member.
+ *
+ * The army is defeated the moment its last member is removed, whoever waits
+ * for the end of a war is notified through {@link #whenDefeated()} right then.
+ */
+public class Army implements Iterable<Personnel> {
+
+    // a few members to a cell while the army stands around its base
+    private static final float CELL_SIZE = Battlefield.SPAWN_RADIUS / 8;
+    // the index is rebuilt with smaller cells each time the army grows this much bigger
+    private static final int REINDEX_FACTOR = 4;
+
+    private final StampedLock lock = new StampedLock();
+    private Personnel[] members = new Personnel[16];
+    private int size;
+    // guarded by the lock, like the members
+    private SpatialGrid places = new SpatialGrid(CELL_SIZE);
+    private int reindexAt = 256;
+    private final CompletableFuture<Army> defeat = new CompletableFuture<>();
+
+    public void add(Personnel p) {
+        long stamp = lock.writeLock();
+        try {
+            if (size == members.length) {
+                members = Arrays.copyOf(members, size * 2);
+            }
+            p.armySlot = size;
+            places.insert(size, p.getX(), p.getY());
+            members[size++] = p;
+            if (size == reindexAt) {
+                reindex();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a member, the last member takes its place.
+     *
+     * @param p The member to remove
+     * @return true if it was a member, false otherwise
+     */
+    public boolean remove(Personnel p) {
+        boolean defeated;
+        long stamp = lock.writeLock();
+        try {
+            if (!unlink(p)) {
+                return false;
+            }
+            defeated = size == 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        // completed outside of the lock, the callbacks run on the calling thread
+        if (defeated) {
+            defeat.complete(this);
+        }
+        return true;
+    }
+
+    /**
+     * Removes several members under a single lock.
+     *
+     * @param fallen The members to remove, the ones that are not members are skipped
+     * @param count  Number of members to remove from the start of the array
+     * @return Number of members removed
+     */
+    public int removeAll(Personnel[] fallen, int count) {
+        int removed = 0;
+        boolean defeated;
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                if (unlink(fallen[i])) {
+                    removed++;
+                }
+            }
+            defeated = removed > 0 && size == 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (defeated) {
+            defeat.complete(this);
+        }
+        return removed;
+    }
+
+    /**
+     * Moves the last member into the place of the removed one, called under the write lock.
+     *
+     * @return false if it is not a member
+     */
+    private boolean unlink(Personnel p) {
+        int slot = p.armySlot;
+        if (slot < 0 || slot >= size || members[slot] != p) {
+            return false;
+        }
+        Personnel last = members[--size];
+        members[slot] = last;
+        last.armySlot = slot;
+        members[size] = null;
+        p.armySlot = -1;
+        places.remove(size);
+        if (last != p) {
+            places.move(slot, last.getX(), last.getY());
+        }
+        return true;
+    }
+
+    /**
+     * Builds the index again with cells fitting the number of members, called under the write lock.
+     */
+    private void reindex() {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, places.getX(i));
+            minY = Math.min(minY, places.getY(i));
+            maxX = Math.max(maxX, places.getX(i));
+            maxY = Math.max(maxY, places.getY(i));
+        }
+        SpatialGrid grid = SpatialGrid.covering(minX, minY, maxX, maxY, size * REINDEX_FACTOR);
+        for (int i = 0; i < size; i++) {
+            grid.insert(i, places.getX(i), places.getY(i));
+        }
+        places = grid;
+        reindexAt = size * REINDEX_FACTOR;
+    }
+
+    /**
+     * Updates the place of a member in the index, after it moved.
+     */
+    void relocate(Personnel p) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = p.armySlot;
+            if (slot >= 0 && slot < size && members[slot] == p) {
+                places.move(slot, p.getX(), p.getY());
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Finds the member closest to a point on the battlefield.
+     *
+     * @return The nearest member, or null if the army is empty
+     */
+    public Personnel nearestMember(float x, float y) {
+        long stamp = lock.readLock();
+        try {
+            int nearest = places.nearest(x, y);
+            return nearest < 0 ? null : members[nearest];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return Completes with the army when its last member is removed
+     */
+    public CompletionStage<Army> whenDefeated() {
+        return defeat.minimalCompletionStage();
+    }
+
+    /**
+     * @return true if the army had members and lost all of them
+     */
+    public boolean isDefeated() {
+        return defeat.isDone();
+    }
+
+    /**
+     * Picks a member uniformly at random.
+     *
+     * @param random Source of randomness
+     * @return A random member, or null if the army is empty
+     */
+    public Personnel randomMember(RandomGenerator random) {
+        long stamp = lock.tryOptimisticRead();
+        Personnel[] current = members;
+        int currentSize = size;
+        Personnel result = currentSize > 0 && currentSize <= current.length
+                ? current[random.nextInt(currentSize)]
+                : null;
+        if (lock.validate(stamp)) {
+            return result;
+        }
+        stamp = lock.readLock();
+        try {
+            return size > 0 ? members[random.nextInt(size)] : null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int currentSize = size;
+        if (lock.validate(stamp)) {
+            return currentSize;
+        }
+        stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return The current members, later changes of the army are not reflected
+     */
+    public Personnel[] toArray() {
+        long stamp = lock.readLock();
+        try {
+            return Arrays.copyOf(members, size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Iterator<Personnel> iterator() {
+        return Arrays.asList(toArray()).iterator();
+    }
+
+}
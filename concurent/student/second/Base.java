@@ -1,108 +1,261 @@
 package concurent.student.second;
 
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Base {
 
     private static final int STARTER_PEASANT_NUMBER = 5;
     private static final int PEASANT_NUMBER_GOAL = 10;
-
-    // lock to ensure only one unit can be trained at one time
-    private final ReentrantLock trainingLock = new ReentrantLock();
+    private static final int FOOTMAN_NUMBER_GOAL = 10;
+    // orders a production queue can hold before the one ordering has to wait
+    private static final int PRODUCTION_BACKLOG = 5;
+    // most deaths handled under one lock of the army
+    private static final int DEATH_BATCH = 64;
 
     private final String name;
-    private final Resources resources = new Resources();
+    private final World world;
+    private final SimulationClock clock;
+    private final GameLog log;
+    // restarted while the clock is paused for a checkpoint, guarded by the base
+    private SplittableRandom random;
+    private final Resources resources;
     private final List<Peasant> peasants = Collections.synchronizedList(new LinkedList<>());
+    // peasants register here when they become free, claiming one is O(1);
+    // a peasant that got busy since registering is skipped when polled
+    private final Queue<Peasant> idlePeasants = new ConcurrentLinkedQueue<>();
     private final List<Footman> footmen = Collections.synchronizedList(new LinkedList<>());
     private final List<Building> buildings = Collections.synchronizedList(new LinkedList<>());
-    private final List<Personnel> army = Collections.synchronizedList(new LinkedList<>());
+    private final Army army = new Army();
+    // number of finished buildings per type, kept up to date as buildings are finished
+    private final Map<UnitType, AtomicInteger> buildingCounts = new EnumMap<>(UnitType.class);
+    private final List<BuildingListener> buildingListeners = new CopyOnWriteArrayList<>();
+
+    // time a unit was trained or a building was built for, per type
+    private final Map<UnitType, Metrics.Histogram> productionTimes = new EnumMap<>(UnitType.class);
+    private final Metrics.Rate damageTaken;
+    private final Metrics.Rate deaths;
+    private final Journal journal;
+    private final int journalId;
+    private final AtomicInteger unitIds = new AtomicInteger();
+    // personnel that died, but whose death is not handled yet
+    private final Queue<Personnel> fallen = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingDeaths = new AtomicInteger();
+    private final int storeId;
+    // place of the town hall on the battlefield
+    private final float x;
+    private final float y;
 
     public Base(String name) {
+        this(name, new World(SimulationClock.wallClock()));
+    }
+
+    public Base(String name, World world) {
+        this(name, world, STARTER_PEASANT_NUMBER);
+    }
+
+    /**
+     * @param starterPeasants Number of peasants to start with, a base restored
+     *                        from a {@link Checkpoint} starts without any
+     */
+    private Base(String name, World world, int starterPeasants) {
         this.name = name;
-        for (int i = 0; i < STARTER_PEASANT_NUMBER; i++) {
-            peasants.add(createPeasant());
+        this.world = world;
+        this.clock = world.getClock();
+        this.log = world.getLog();
+        this.random = world.newRandom();
+        Metrics metrics = world.getMetrics();
+        this.journal = world.getJournal();
+        this.journalId = journal.registerBase(name);
+        this.resources = new Resources(world, name, journalId);
+        this.storeId = world.getUnits().registerOwner(this);
+        this.x = world.getBattlefield().getBaseX(storeId);
+        this.y = world.getBattlefield().getBaseY(storeId);
+        world.getBattlefield().foundBase(storeId);
+        this.damageTaken = metrics.rate(name + ".war.damageTaken");
+        this.deaths = metrics.rate(name + ".war.deaths");
+        for (UnitType type : UnitType.values()) {
+            buildingCounts.put(type, new AtomicInteger());
+            productionTimes.put(type, metrics.histogram(name + ".production." + type));
+        }
+        metrics.gauge(name + ".peasants.idleRatio", this::getIdlePeasantRatio);
+        metrics.gauge(name + ".personnel.alive", () -> world.getUnits().countAlive(storeId, null));
+        metrics.gauge(name + ".personnel.health", () -> world.getUnits().totalHealth(storeId));
+        if (starterPeasants == 0) {
+            return;
         }
-        peasants.get(0).startMining();
-        peasants.get(1).startMining();
-        peasants.get(2).startMining();
-        peasants.get(3).startCuttingWood();
+        for (int i = 0; i < starterPeasants; i++) {
+            train(UnitType.PEASANT);
+        }
+        claimFreePeasant().startMining();
+        claimFreePeasant().startMining();
+        claimFreePeasant().startMining();
+        claimFreePeasant().startCuttingWood();
     }
 
-    public void startPreparation() {
-        Thread buildingThread = new Thread(() -> {
-            while (!hasEnoughBuilding(UnitType.FARM, 3)) {
-                if (getFreePeasant() != null) {
-                    getFreePeasant().tryBuilding(UnitType.FARM);
-                }
+    /**
+     * Copies the state of the base for a {@link Checkpoint}.
+     * The costs reserved for work in progress are given back in the copy,
+     * as the work is not saved.
+     */
+    Checkpoint.BaseState checkpoint() {
+        Checkpoint.BaseState state = new Checkpoint.BaseState(this.name);
+        resources.settle();
+        state.gold = resources.getGold();
+        state.wood = resources.getWood();
+        state.capacity = resources.getCapacity();
+        state.capacityLimit = resources.getCapacityLimit();
+        state.lastUnitId = unitIds.get();
+        synchronized (this) {
+            state.random = random.nextLong();
+            random = new SplittableRandom(state.random);
+        }
+        synchronized (buildings) {
+            for (Building b : buildings) {
+                state.buildings.add(Checkpoint.UnitState.of(b));
             }
-            while (!hasEnoughBuilding(UnitType.LUMBERMILL, 1)) {
-                if (getFreePeasant() != null) {
-                    getFreePeasant().tryBuilding(UnitType.LUMBERMILL);
-                }
+        }
+        synchronized (peasants) {
+            for (Peasant p : peasants) {
+                state.peasants.add(Checkpoint.UnitState.of(p));
             }
-            while (!hasEnoughBuilding(UnitType.BLACKSMITH, 1)) {
-                if (getFreePeasant() != null) {
-                    getFreePeasant().tryBuilding(UnitType.BLACKSMITH);
-                }
+        }
+        synchronized (footmen) {
+            for (Footman f : footmen) {
+                state.footmen.add(Checkpoint.UnitState.of(f));
             }
-            while (!hasEnoughBuilding(UnitType.BARRACKS, 1)) {
-                if (getFreePeasant() != null) {
-                    getFreePeasant().tryBuilding(UnitType.BARRACKS);
+        }
+        for (Resources.Reservation cost : resources.getOutstanding()) {
+            state.refund(cost);
+        }
+        return state;
+    }
+
+    /**
+     * Creates a base from its state saved in a {@link Checkpoint}. The units
+     * keep their ids, places, random generators and order in the army, and the
+     * harvesters go back to harvesting.
+     */
+    static Base restore(World world, Checkpoint.BaseState state) {
+        Base base = new Base(state.name, world, 0);
+        Personnel[] army = new Personnel[state.footmen.size() + state.peasants.size()];
+        base.resources.restore(state.gold, state.wood, state.capacity, state.capacityLimit);
+        for (Checkpoint.UnitState unit : state.buildings) {
+            base.unitIds.set(unit.id - 1);
+            base.buildings.add(Building.restoreBuilding(unit.type, base));
+            base.buildingCounts.get(unit.type).incrementAndGet();
+        }
+        for (Checkpoint.UnitState unit : state.footmen) {
+            base.unitIds.set(unit.id - 1);
+            Footman f = Footman.createFootman(base);
+            f.setHealth(unit.health);
+            f.restore(unit.x, unit.y, unit.random);
+            base.footmen.add(f);
+            if (unit.armySlot >= 0 && unit.health > 0) {
+                army[unit.armySlot] = f;
+            }
+        }
+        for (Checkpoint.UnitState unit : state.peasants) {
+            base.unitIds.set(unit.id - 1);
+            Peasant p = Peasant.createPeasant(base);
+            p.setHealth(unit.health);
+            p.restore(unit.x, unit.y, unit.random);
+            if (unit.armySlot >= 0 && unit.health > 0) {
+                army[unit.armySlot] = p;
+            }
+            if (unit.health <= 0) {
+                base.peasants.add(p);
+            } else {
+                base.addPeasant(p);
+                if (unit.isMining() && p.claim()) {
+                    p.startMining();
+                } else if (unit.isCuttingWood() && p.claim()) {
+                    p.startCuttingWood();
                 }
             }
-        });
-        buildingThread.start();
+        }
+        for (Personnel member : army) {
+            if (member != null) {
+                base.army.add(member);
+            }
+        }
+        base.unitIds.set(state.lastUnitId);
+        synchronized (base) {
+            base.random = new SplittableRandom(state.random);
+        }
+        return base;
+    }
 
-        Thread peasantThread = new Thread(() -> {
-            while (this.peasants.size() != PEASANT_NUMBER_GOAL) {
-                Peasant p = createPeasant();
-                if (p != null) {
-                    peasants.add(p);
-                }
+    public void startPreparation() {
+        Map<UnitType, Integer> goals = new EnumMap<>(UnitType.class);
+        goals.put(UnitType.FARM, 3);
+        goals.put(UnitType.LUMBERMILL, 1);
+        goals.put(UnitType.BLACKSMITH, 1);
+        goals.put(UnitType.BARRACKS, 1);
+        goals.put(UnitType.PEASANT, PEASANT_NUMBER_GOAL);
+        goals.put(UnitType.FOOTMAN, FOOTMAN_NUMBER_GOAL);
+        Task buildingThread = clock.start(() -> new BuildScheduler(this, TechTree.standard(), goals).run());
+
+        // peasants are trained in the town hall, footmen in every barracks
+        ProductionQueue peasantQueue = new ProductionQueue(this, UnitType.PEASANT, PRODUCTION_BACKLOG);
+        peasantQueue.ensureSlots(1);
+        ProductionQueue footmanQueue = new ProductionQueue(this, UnitType.FOOTMAN, PRODUCTION_BACKLOG);
+        BuildingListener barracks = (base, type, count) -> {
+            if (type == UnitType.BARRACKS) {
+                footmanQueue.ensureSlots(count);
             }
-            if (getFreePeasant() != null) {
-                getFreePeasant().startMining();
+        };
+        addBuildingListener(barracks);
+        footmanQueue.ensureSlots(getBuildingCount(UnitType.BARRACKS));
+
+        Task peasantThread = clock.start(() -> {
+            peasantQueue.order(PEASANT_NUMBER_GOAL - this.peasants.size());
+            peasantQueue.awaitDone();
+            Peasant p = claimFreePeasant();
+            if (p != null) {
+                p.startMining();
             }
-            if (getFreePeasant() != null) {
-                getFreePeasant().startMining();
+            p = claimFreePeasant();
+            if (p != null) {
+                p.startMining();
             }
-            if (getFreePeasant() != null) {
-                getFreePeasant().startCuttingWood();
+            p = claimFreePeasant();
+            if (p != null) {
+                p.startCuttingWood();
             }
         });
-        peasantThread.start();
 
-        Thread footmanThread = new Thread(() -> {
-            while (this.footmen.size() != 10) {
-                Footman f = this.createFootman();
-                if (f != null) {
-                    this.footmen.add(f);
-                }
-            }
+        Task footmanThread = clock.start(() -> {
+            // the orders wait in the queue until there are barracks
+            footmanQueue.order(FOOTMAN_NUMBER_GOAL - this.footmen.size());
+            footmanQueue.awaitDone();
         });
-        footmanThread.start();
 
-        try {
-            buildingThread.join();
-            peasantThread.join();
-            footmanThread.join();
-        } catch (InterruptedException e) {
-            System.out.println("Interrupt Occurred");
-            e.printStackTrace();
-        }
+        buildingThread.join();
+        peasantThread.join();
+        footmanThread.join();
+        removeBuildingListener(barracks);
+        peasantQueue.close();
+        footmanQueue.close();
         for (Peasant p : peasants) {
             p.stopHarvesting();
         }
-        System.out.println(this.name + " finished creating a base");
-        System.out.println(this.name + " peasants: " + this.peasants.size());
-        System.out.println(this.name + " footmen: " + this.footmen.size());
-        for (Building b : buildings) {
-            System.out.println(this.name + " has a  " + b.getUnitType().toString());
+        log.log(GameEvent.PREPARATION_FINISHED, this.name);
+        log.log(GameEvent.UNIT_COUNT, this.name, UnitType.PEASANT, this.peasants.size());
+        log.log(GameEvent.UNIT_COUNT, this.name, UnitType.FOOTMAN, this.footmen.size());
+        if (log.isEnabled(GameEvent.BUILDING_OWNED.getLevel())) {
+            for (Building b : buildings) {
+                log.log(GameEvent.BUILDING_OWNED, this.name, b.getUnitType());
+            }
         }
     }
 
@@ -112,81 +265,142 @@ public class Base {
      * @param latch
      */
     public void assembleArmy(CountDownLatch latch) {
+        // units restored from a checkpoint can already be in the army
         for (Peasant p : this.peasants) {
-            this.army.add(p);
+            if (p.armySlot < 0) {
+                this.army.add(p);
+            }
         }
         for (Footman f : this.footmen) {
-            this.army.add(f);
+            if (f.armySlot < 0) {
+                this.army.add(f);
+            }
         }
-        System.out.println(this.name + " is ready for war");
+        log.log(GameEvent.ARMY_READY, this.name);
         // the latch is used to keep track of both factions
         latch.countDown();
     }
 
     /**
-     * Starts a war between the two bases.
+     * Starts a war between two bases, resolved in ticks by a {@link CombatEngine}.
+     * The calling thread drives the whole war for both sides, big ticks are
+     * split between the given number of threads.
      *
-     * @param enemy    Enemy base's personnel
-     * @param warLatch Latch to make sure they attack at the same time
+     * @param enemy   The enemy base
+     * @param threads Number of threads to resolve the ticks on
+     * @return The outcome of the war
      */
-    public void goToWar(List<Personnel> enemy, CountDownLatch warLatch) {
-        // This is necessary to ensure that both armies attack at the same time
-        warLatch.countDown();
-        try {
-            // Waiting for the other army to be ready for war
-            warLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        Thread fight = new Thread(() -> {
-            for (int i = 0; i < army.size(); i++) {
-                army.get(i).startWar(enemy);
-            }
-            while(!army.isEmpty() && !enemy.isEmpty()) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
-        fight.start();
-        try {
-            fight.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public WarResult goToWar(Base enemy, int threads) {
+        return goToWar(List.of(enemy), threads);
+    }
+
+    /**
+     * Starts a free-for-all between this base and the enemies, every army
+     * fights every other one until at most one of them is left.
+     * Resolved by a {@link CombatEngine} on the calling thread.
+     *
+     * @param enemies The enemy bases
+     * @param threads Number of threads to resolve the ticks on
+     * @return The outcome of the war
+     */
+    public WarResult goToWar(List<Base> enemies, int threads) {
+        Base[] sides = new Base[enemies.size() + 1];
+        sides[0] = this;
+        for (int i = 0; i < enemies.size(); i++) {
+            sides[i + 1] = enemies.get(i);
+        }
+        long started = clock.currentTimeMillis();
+        Base winner = new CombatEngine(sides, threads, CombatEngine.DEFAULT_TICK).run();
+        for (Base side : sides) {
+            side.announceOutcome();
         }
+        return new WarResult(winner, started, clock.currentTimeMillis(),
+                winner == null ? 0 : winner.getArmy().size());
+    }
 
+    private void announceOutcome() {
         // If our army has no personnel, we failed
         if (army.isEmpty()) {
-            System.out.println(this.name + " has lost the fight");
+            log.log(GameEvent.WAR_LOST, this.name);
         } else {
-            System.out.println(this.name + " has won the fight");
+            log.log(GameEvent.WAR_WON, this.name);
         }
     }
 
     /**
      * Resolves the event when a personnel dies;
      * Remove it from the army and update the capacity.
-     * 
+     * Must be called exactly once per personnel.
+     *
+     * The fallen personnel is queued, and whoever finds the queue idle handles
+     * the deaths queued meanwhile by the others too, in batches, so a burst
+     * of deaths takes the lock of the army once per batch instead of once per death.
+     *
      * @param p The fallen personnel
      */
     public void signalPersonnelDeath(Personnel p) {
-        this.getResources().updateCapacity(-(p.getUnitType().foodCost));
-        this.army.remove(p);
-        System.out.println(this.name + " has lost a " + p.getUnitType().toString());
+        fallen.offer(p);
+        if (pendingDeaths.getAndIncrement() != 0) {
+            // somebody else is handling the deaths, ours included
+            return;
+        }
+        Personnel[] batch = new Personnel[DEATH_BATCH];
+        int handled;
+        do {
+            handled = 0;
+            int count;
+            do {
+                count = 0;
+                Personnel next;
+                while (count < batch.length && (next = fallen.poll()) != null) {
+                    batch[count++] = next;
+                }
+                signalPersonnelDeaths(batch, count);
+                handled += count;
+            } while (count == batch.length);
+            // a death queued but not yet counted can already be handled, the count can go below zero;
+            // its owner then finds the count not zero and leaves it to us, who already handled it
+        } while (pendingDeaths.addAndGet(-handled) > 0);
+    }
 
+    /**
+     * Resolves the deaths of several personnel at once:
+     * one update of the capacity and one removal from the army for all of them.
+     * Every personnel must be reported exactly once.
+     *
+     * @param dead  The fallen personnel
+     * @param count Number of fallen personnel from the start of the array
+     */
+    void signalPersonnelDeaths(Personnel[] dead, int count) {
+        if (count == 0) {
+            return;
+        }
+        int food = 0;
+        for (int i = 0; i < count; i++) {
+            food += dead[i].getUnitType().foodCost;
+            journal(Journal.Kind.DEATH, dead[i].getUnitType(), dead[i].getId(), 1);
+        }
+        this.deaths.add(count);
+        this.getResources().updateCapacity(-food);
+        this.army.removeAll(dead, count);
+        if (log.isEnabled(GameEvent.UNIT_DIED.getLevel())) {
+            for (int i = 0; i < count; i++) {
+                log.log(GameEvent.UNIT_DIED, this.name, dead[i].getUnitType());
+            }
+        }
     }
 
     /**
-     * Returns a peasants that is currently free.
+     * Claims a peasant that is currently free.
      * Being free means that the peasant currently isn't harvesting or building.
+     * A claimed peasant is not handed out again, until he becomes free again.
      *
      * @return Peasant object, if found one, null if there isn't one
      */
-    private Peasant getFreePeasant() {
-        for (Peasant p : peasants) {
-            if (p.isFree()) {
+    private Peasant claimFreePeasant() {
+        Peasant p;
+        while ((p = idlePeasants.poll()) != null) {
+            if (p.claim()) {
                 return p;
             }
         }
@@ -194,62 +408,226 @@ public class Base {
     }
 
     /**
-     * Creates a peasant.
-     * A peasant could only be trained if there are sufficient
-     * gold, wood and food for him to train.
+     * Waits until a peasant is free and claims him.
      *
-     * At one time only one Peasant can be trained.
+     * @return The claimed peasant
+     */
+    public Peasant awaitFreePeasant() {
+        Peasant p = claimFreePeasant();
+        while (p == null) {
+            clock.awaitUntil(() -> !idlePeasants.isEmpty());
+            p = claimFreePeasant();
+        }
+        return p;
+    }
+
+    /**
+     * Puts a peasant who became free into the idle pool.
      *
-     * @return The newly created peasant if it could be trained, null otherwise
+     * @param p The free peasant
      */
-    private Peasant createPeasant() {
-        Peasant result;
-        if (resources.canTrain(UnitType.PEASANT.goldCost, UnitType.PEASANT.woodCost, UnitType.PEASANT.foodCost)) {
-            this.trainingLock.lock();
-            try {
-                sleepForMsec(UnitType.PEASANT.buildTime);
-                getResources().removeCost(UnitType.PEASANT.goldCost, UnitType.PEASANT.woodCost);
-                getResources().updateCapacity(UnitType.PEASANT.foodCost);
-                result = Peasant.createPeasant(this);
-                return result;
-            } finally {
-                this.trainingLock.unlock();
-            }
+    void releasePeasant(Peasant p) {
+        idlePeasants.offer(p);
+        clock.signalAll();
+    }
+
+    private void addPeasant(Peasant p) {
+        peasants.add(p);
+        releasePeasant(p);
+    }
+
+    /**
+     * Trains a unit and adds it to the base.
+     * Waits until the cost of the unit is affordable, then reserves it,
+     * so nobody else can spend it during the training.
+     *
+     * @param unitType PEASANT or FOOTMAN
+     * @return The trained unit
+     */
+    Personnel train(UnitType unitType) {
+        Resources.Reservation cost = resources.tryReserve(unitType.goldCost, unitType.woodCost, unitType.foodCost);
+        while (cost == null) {
+            resources.awaitAffordable(unitType.goldCost, unitType.woodCost, unitType.foodCost);
+            cost = resources.tryReserve(unitType.goldCost, unitType.woodCost, unitType.foodCost);
         }
-        return null;
+        long started = clock.currentTimeMillis();
+        sleepForMsec(unitType.buildTime);
+        cost.commit();
+        recordProduction(unitType, clock.currentTimeMillis() - started);
+        Personnel result;
+        if (unitType == UnitType.PEASANT) {
+            Peasant p = Peasant.createPeasant(this);
+            addPeasant(p);
+            result = p;
+        } else {
+            Footman f = Footman.createFootman(this);
+            footmen.add(f);
+            log.log(GameEvent.UNIT_TRAINED, this.name, UnitType.FOOTMAN);
+            result = f;
+        }
+        journal(Journal.Kind.UNIT_TRAINED, unitType, result.getId(), 1);
+        return result;
     }
 
-    private Footman createFootman() {
-        Footman result;
-        if (resources.canTrain(UnitType.FOOTMAN.goldCost, UnitType.FOOTMAN.woodCost, UnitType.FOOTMAN.foodCost)
-                && hasEnoughBuilding(UnitType.BARRACKS, 1)) {
-            this.trainingLock.lock();
-            try {
-                sleepForMsec(UnitType.FOOTMAN.buildTime);
-                getResources().removeCost(UnitType.FOOTMAN.goldCost, UnitType.FOOTMAN.woodCost);
-                getResources().updateCapacity(UnitType.FOOTMAN.foodCost);
-                result = Footman.createFootman(this);
-            } finally {
-                this.trainingLock.unlock();
+    /**
+     * @param unitType Type of the unit or building
+     * @param millis   Time it took to train or build it
+     */
+    void recordProduction(UnitType unitType, long millis) {
+        productionTimes.get(unitType).record(millis);
+    }
+
+    /**
+     * Records an event of the base in the journal of the world, at the current time.
+     */
+    void journal(Journal.Kind kind, UnitType unitType, int unit, long value) {
+        if (journal.isEnabled()) {
+            journal.record(clock.currentTimeMillis(), kind, journalId, unitType, unit, value);
+        }
+    }
+
+    int getJournalId() {
+        return journalId;
+    }
+
+    /**
+     * @return Id of the base in the {@link UnitStore} of the world
+     */
+    int getStoreId() {
+        return storeId;
+    }
+
+    int nextUnitId() {
+        return unitIds.incrementAndGet();
+    }
+
+    void recordDamage(long amount) {
+        damageTaken.add(amount);
+    }
+
+    /**
+     * Starts measuring the damage and the deaths of a war.
+     */
+    void warStarted() {
+        damageTaken.start();
+        deaths.start();
+    }
+
+    void warEnded() {
+        damageTaken.stop();
+        deaths.stop();
+    }
+
+    /**
+     * @return Ratio of the peasants that are free, 0 if there are none
+     */
+    public double getIdlePeasantRatio() {
+        Peasant[] all;
+        synchronized (peasants) {
+            all = peasants.toArray(new Peasant[0]);
+        }
+        if (all.length == 0) {
+            return 0;
+        }
+        int idle = 0;
+        for (Peasant p : all) {
+            if (p.isFree()) {
+                idle++;
             }
-            System.out.println(this.name + " created a footman");
-            return result;
         }
-        return null;
+        return (double) idle / all.length;
+    }
+
+    /**
+     * @return Horizontal place of the town hall on the battlefield
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * @return Vertical place of the town hall on the battlefield
+     */
+    public float getY() {
+        return y;
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    public SimulationClock getClock() {
+        return this.clock;
+    }
+
+    public GameLog getLog() {
+        return this.log;
+    }
+
+    /**
+     * @return A random generator for a new unit, split from the generator of the base
+     */
+    synchronized SplittableRandom newUnitRandom() {
+        return this.random.split();
     }
 
     public Resources getResources() {
         return this.resources;
     }
 
-    public List<Personnel> getArmy() {
+    public Army getArmy() {
         return this.army;
     }
 
+    public List<Peasant> getPeasants() {
+        return this.peasants;
+    }
+
     public List<Building> getBuildings() {
         return this.buildings;
     }
 
+    /**
+     * Adds a finished building to the base, updates the building counts
+     * and notifies the listeners and the waiting producers.
+     *
+     * @param building The finished building
+     */
+    public void addBuilding(Building building) {
+        this.buildings.add(building);
+        int count = buildingCounts.get(building.getUnitType()).incrementAndGet();
+        for (BuildingListener listener : buildingListeners) {
+            listener.buildingCompleted(this, building.getUnitType(), count);
+        }
+        clock.signalAll();
+    }
+
+    /**
+     * @param unitType Type of the building
+     * @return Number of finished buildings of the type
+     */
+    public int getBuildingCount(UnitType unitType) {
+        return buildingCounts.get(unitType).get();
+    }
+
+    public void addBuildingListener(BuildingListener listener) {
+        buildingListeners.add(listener);
+    }
+
+    public void removeBuildingListener(BuildingListener listener) {
+        buildingListeners.remove(listener);
+    }
+
+    /**
+     * Waits until the base has the required number of a certain building.
+     *
+     * @param unitType Type of the building
+     * @param required Number of required amount
+     */
+    public void awaitBuilding(UnitType unitType, int required) {
+        clock.awaitUntil(() -> hasEnoughBuilding(unitType, required));
+    }
+
     public String getName() {
         return this.name;
     }
@@ -262,24 +640,12 @@ public class Base {
      * @param required Number of required amount
      * @return true, if required amount is reached (or surpassed), false otherwise
      */
-    private boolean hasEnoughBuilding(UnitType unitType, int required) {
-        int count = 0;
-        for (Building building : this.getBuildings()) {
-            if (building.getUnitType() == unitType) {
-                count++;
-            }
-            if (count >= required) {
-                return true;
-            }
-        }
-        return false;
+    boolean hasEnoughBuilding(UnitType unitType, int required) {
+        return getBuildingCount(unitType) >= required;
     }
 
-    private static void sleepForMsec(int sleepTime) {
-        try {
-            TimeUnit.MILLISECONDS.sleep(sleepTime);
-        } catch (InterruptedException e) {
-        }
+    private void sleepForMsec(int sleepTime) {
+        clock.sleep(sleepTime);
     }
 
 }
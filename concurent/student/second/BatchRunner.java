@@ -0,0 +1,215 @@
+package concurent.student.second;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays many independent matches at once, to see how balance changes
+ * of the units play out.
+ *
+ * Every match runs in simulated time with a silent log, on its own seed
+ * derived from the seed of the batch, so a batch can be repeated.
+ * A match that runs out of its time budget is cut short and counted
+ * as unfinished, so one straggler can not hold up the whole batch.
+ */
+public class BatchRunner {
+
+    // simulation time a match may take, a usual match takes less than a minute
+    public static final long DEFAULT_TIME_BUDGET = 10 * 60 * 1000;
+
+    private final int matches;
+    private final int parallelism;
+    private final long seed;
+    private long timeBudget = DEFAULT_TIME_BUDGET;
+
+    /**
+     * @param matches     Number of matches to play
+     * @param parallelism Number of matches to play at the same time
+     * @param seed        Seed of the batch
+     */
+    public BatchRunner(int matches, int parallelism, long seed) {
+        if (matches < 0 || parallelism < 1) {
+            throw new IllegalArgumentException("matches can not be negative and parallelism must be positive");
+        }
+        this.matches = matches;
+        this.parallelism = parallelism;
+        this.seed = seed;
+    }
+
+    /**
+     * @param millis Simulation time a match may take at most, 0 for no limit
+     */
+    public void setTimeBudget(long millis) {
+        this.timeBudget = millis;
+    }
+
+    /**
+     * Plays every match of the batch.
+     *
+     * @return The aggregated results
+     */
+    public Summary run() {
+        long start = System.nanoTime();
+        UnitExecutor executor = UnitExecutor.create();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            SplittableRandom seeds = new SplittableRandom(seed);
+            List<ForkJoinTask<MatchResult>> results = new ArrayList<>();
+            for (int i = 0; i < matches; i++) {
+                long matchSeed = seeds.nextLong();
+                results.add(pool.submit(() -> playMatch(matchSeed, executor, timeBudget)));
+            }
+            Summary summary = new Summary();
+            for (ForkJoinTask<MatchResult> result : results) {
+                summary.add(result.join());
+            }
+            summary.wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return summary;
+        } finally {
+            pool.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    private static MatchResult playMatch(long seed, UnitExecutor executor, long timeBudget) {
+        World world = new World(new DiscreteEventClock(executor), seed, GameLog.silent());
+        Match match = new Match(world);
+        match.setTimeBudget(timeBudget);
+        return match.play();
+    }
+
+    /**
+     * Runs a batch and prints its summary.
+     *
+     * @param args Number of matches, number of parallel matches, the seed and the time budget
+     *             of a match, defaults to 1000 matches on every core with seed 42 and the default budget
+     */
+    public static void main(String[] args) {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        BatchRunner runner = new BatchRunner(matches, parallelism, seed);
+        if (args.length > 3) {
+            runner.setTimeBudget(Long.parseLong(args[3]));
+        }
+        System.out.println(runner.run());
+    }
+
+    /**
+     * Aggregated results of a batch.
+     */
+    public static class Summary {
+
+        private final Map<String, Integer> wins = new LinkedHashMap<>();
+        private int matches;
+        private int draws;
+        private int unfinished;
+        private long totalDuration;
+        private long totalPreparationTime;
+        private long minDuration = Long.MAX_VALUE;
+        private long maxDuration;
+        private long totalSurvivors;
+        private long wallTime;
+
+        private void add(MatchResult result) {
+            matches++;
+            if (!result.isFinished()) {
+                unfinished++;
+            } else if (result.getWinner() == null) {
+                draws++;
+            } else {
+                wins.merge(result.getWinner(), 1, Integer::sum);
+            }
+            totalDuration += result.getDuration();
+            totalPreparationTime += result.getPreparationTime();
+            minDuration = Math.min(minDuration, result.getDuration());
+            maxDuration = Math.max(maxDuration, result.getDuration());
+            totalSurvivors += result.getSurvivors();
+        }
+
+        public int getMatches() {
+            return matches;
+        }
+
+        public int getWins(String base) {
+            return wins.getOrDefault(base, 0);
+        }
+
+        /**
+         * @param base Name of the base
+         * @return Ratio of the matches won by the base
+         */
+        public double getWinRate(String base) {
+            return matches == 0 ? 0 : (double) getWins(base) / matches;
+        }
+
+        public int getDraws() {
+            return draws;
+        }
+
+        /**
+         * @return Number of matches cut short by their time budget
+         */
+        public int getUnfinished() {
+            return unfinished;
+        }
+
+        public double getAverageDuration() {
+            return matches == 0 ? 0 : (double) totalDuration / matches;
+        }
+
+        public double getAveragePreparationTime() {
+            return matches == 0 ? 0 : (double) totalPreparationTime / matches;
+        }
+
+        public long getMinDuration() {
+            return matches == 0 ? 0 : minDuration;
+        }
+
+        public long getMaxDuration() {
+            return maxDuration;
+        }
+
+        public double getAverageSurvivors() {
+            return matches == 0 ? 0 : (double) totalSurvivors / matches;
+        }
+
+        /**
+         * @return Real milliseconds it took to play the batch
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(matches).append(" matches in ").append(wallTime).append(" ms");
+            if (wallTime > 0) {
+                sb.append(String.format(" (%.0f matches per minute)", matches * 60000.0 / wallTime));
+            }
+            sb.append(System.lineSeparator());
+            for (Map.Entry<String, Integer> entry : wins.entrySet()) {
+                sb.append(String.format("%s won %d (%.1f%%)%n", entry.getKey(), entry.getValue(),
+                        100.0 * getWinRate(entry.getKey())));
+            }
+            sb.append("draws: ").append(draws).append(System.lineSeparator());
+            if (unfinished > 0) {
+                sb.append("unfinished: ").append(unfinished).append(System.lineSeparator());
+            }
+            sb.append(String.format("match duration: avg %.0f ms, min %d ms, max %d ms%n",
+                    getAverageDuration(), getMinDuration(), getMaxDuration()));
+            sb.append(String.format("preparation: avg %.0f ms%n", getAveragePreparationTime()));
+            sb.append(String.format("survivors of the winner: avg %.1f", getAverageSurvivors()));
+            return sb.toString();
+        }
+
+    }
+
+}
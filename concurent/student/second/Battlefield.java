@@ -0,0 +1,533 @@
+package concurent.student.second;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * The map the bases of a world stand on, a rectangle with the origin at the top left.
+ *
+ * The bases are placed on a circle around the centre, every new one a golden
+ * angle further than the one before, so any number of bases is spread evenly
+ * and the place of a base only depends on the order it was founded in.
+ * A battlefield made for a number of bases is big enough to keep the two
+ * closest of them {@value #BASE_SPACING} apart, so their sites never overlap.
+ * New personnel appear at a random point near their base.
+ *
+ * The map is split into square tiles, a tile is either free or blocked. Rocks
+ * are scattered inside the circle of the bases, a founded base blocks the
+ * tiles of its town hall, of its gold mine and of its forest, and every
+ * building takes a tile around the town hall. The buildings stand on every
+ * other row and column, so they never wall anything in.
+ *
+ * The time a unit takes to walk somewhere is looked up in the flow field of
+ * the destination, kept by the {@link Pathfinder} of the battlefield. Blocking
+ * tiles is guarded by the battlefield and publishes a new {@link Terrain};
+ * the way of a unit is looked up on the terrain of the moment, without locking
+ * the battlefield.
+ */
+public class Battlefield {
+
+    public static final float DEFAULT_SIZE = 1024;
+    // the personnel of a base appears at most this far from it
+    public static final float SPAWN_RADIUS = 32;
+    public static final float TILE_SIZE = 8;
+    // distance a unit walks in a millisecond
+    public static final float SPEED = 0.1f;
+
+    // least distance between two bases on a battlefield made for their number
+    public static final float BASE_SPACING = 168;
+
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+    // flow fields kept for every base, to its town hall, its mine and its forest,
+    // and for the front the armies march to
+    private static final int FIELDS_PER_BASE = 3;
+    private static final int FRONT_FIELDS = 1;
+    // closer than this a unit walks straight, without a flow field
+    private static final float STRAIGHT_DISTANCE = 4 * TILE_SIZE;
+    // furthest ring of tiles searched for a free tile around a blocked one
+    private static final int FREE_TILE_RANGE = 8;
+    private static final int ROCKS = 16;
+    // distance of the gold mine and of the forest from the town hall,
+    // and the angle they are turned by from the way to the centre
+    private static final float SITE_DISTANCE = 56;
+    private static final double SITE_ANGLE = 0.8;
+    private static final float MINE_RADIUS = TILE_SIZE;
+    private static final float FOREST_RADIUS = 2.5f * TILE_SIZE;
+    // furthest ring of tiles around the town hall a building is placed on
+    private static final int LOT_RANGE = 8;
+
+    private final float width;
+    private final float height;
+    private final int columns;
+    private final int rows;
+    private final Pathfinder pathfinder = new Pathfinder(this, fieldCapacity(2));
+    // the blocked tiles and the order they got blocked in, guarded by the battlefield
+    private final long[] blocked;
+    private int[] history = new int[256];
+    private int blockedCount;
+    private volatile Terrain terrain;
+    // x and y of the place the peasants of a base mine and cut wood, by the number of the base
+    private final List<float[]> mines = new ArrayList<>();
+    private final List<float[]> forests = new ArrayList<>();
+
+    /**
+     * Creates an open battlefield of the default size, without rocks.
+     */
+    public Battlefield() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates an open battlefield, without rocks.
+     */
+    public Battlefield(float width, float height) {
+        if (!(width > 2 * SPAWN_RADIUS && height > 2 * SPAWN_RADIUS)) {
+            throw new IllegalArgumentException("The battlefield must be bigger than a base");
+        }
+        this.width = width;
+        this.height = height;
+        this.columns = (int) Math.ceil(width / TILE_SIZE);
+        this.rows = (int) Math.ceil(height / TILE_SIZE);
+        this.blocked = new long[(columns * rows + 63) / 64];
+        this.terrain = new Terrain(columns, rows, blocked.clone(), history, 0);
+    }
+
+    /**
+     * Creates a battlefield with rocks scattered by the random generator.
+     */
+    public Battlefield(float width, float height, RandomGenerator random) {
+        this(width, height);
+        synchronized (this) {
+            placeRocks(random);
+            publish();
+        }
+    }
+
+    /**
+     * Creates a square battlefield with rocks, of the default size or bigger
+     * if that many bases would stand too close on it.
+     *
+     * @param bases Number of bases to be founded on it
+     */
+    public Battlefield(int bases, RandomGenerator random) {
+        this(sizeFor(bases), sizeFor(bases), random);
+        pathfinder.ensureCapacity(fieldCapacity(bases));
+    }
+
+    /**
+     * Finds the side of a square battlefield, the radius of the circle of the
+     * bases is the one that puts the two bases closest by angle
+     * {@link #BASE_SPACING} apart.
+     *
+     * @param bases Number of bases to be founded on it
+     * @return Side of the battlefield, at least {@link #DEFAULT_SIZE}
+     */
+    public static float sizeFor(int bases) {
+        if (bases < 2) {
+            return DEFAULT_SIZE;
+        }
+        double[] angles = new double[bases];
+        for (int i = 0; i < bases; i++) {
+            angles[i] = i * GOLDEN_ANGLE % (2 * Math.PI);
+        }
+        Arrays.sort(angles);
+        double gap = angles[0] + 2 * Math.PI - angles[bases - 1];
+        for (int i = 1; i < bases; i++) {
+            gap = Math.min(gap, angles[i] - angles[i - 1]);
+        }
+        double radius = BASE_SPACING / (2 * Math.sin(gap / 2));
+        float size = (float) Math.ceil(2 * (radius + SPAWN_RADIUS) / TILE_SIZE) * TILE_SIZE;
+        return Math.max(DEFAULT_SIZE, size);
+    }
+
+    private static int fieldCapacity(int bases) {
+        return FIELDS_PER_BASE * bases + FRONT_FIELDS;
+    }
+
+    /**
+     * Scatters round rocks inside the circle of the bases, clear of their
+     * mines and forests. Rocks keep two tiles apart, so they never close off
+     * a part of the map.
+     */
+    private void placeRocks(RandomGenerator random) {
+        float reach = baseDistance() - SPAWN_RADIUS - SITE_DISTANCE - FOREST_RADIUS - 2 * TILE_SIZE;
+        List<float[]> rocks = new ArrayList<>();
+        for (int attempt = 0; rocks.size() < ROCKS && attempt < 16 * ROCKS; attempt++) {
+            float radius = TILE_SIZE * (2 + random.nextInt(4));
+            if (radius >= reach) {
+                return;
+            }
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double distance = (reach - radius) * Math.sqrt(random.nextDouble());
+            float x = width / 2 + (float) (distance * Math.cos(angle));
+            float y = height / 2 + (float) (distance * Math.sin(angle));
+            boolean clear = true;
+            for (float[] rock : rocks) {
+                clear &= Math.hypot(rock[0] - x, rock[1] - y) > rock[2] + radius + 2 * TILE_SIZE;
+            }
+            if (clear) {
+                rocks.add(new float[] { x, y, radius });
+                blockDisc(x, y, radius);
+            }
+        }
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @param index Number of the base in the order of founding, from 0
+     */
+    public float getBaseX(int index) {
+        return width / 2 + (float) (baseDistance() * Math.cos(index * GOLDEN_ANGLE));
+    }
+
+    /**
+     * @param index Number of the base in the order of founding, from 0
+     */
+    public float getBaseY(int index) {
+        return height / 2 + (float) (baseDistance() * Math.sin(index * GOLDEN_ANGLE));
+    }
+
+    private float baseDistance() {
+        return Math.min(width, height) / 2 - SPAWN_RADIUS;
+    }
+
+    /**
+     * Blocks the town hall, the gold mine and the forest of a new base. The
+     * mine and the forest are on the side of the centre, one to the left of
+     * the way there and one to the right.
+     *
+     * @param index Number of the base in the order of founding, from 0
+     */
+    synchronized void foundBase(int index) {
+        pathfinder.ensureCapacity(fieldCapacity(index + 1));
+        float x = getBaseX(index);
+        float y = getBaseY(index);
+        int column = columnOf(x);
+        int row = rowOf(y);
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = column - 1; c <= column + 1; c++) {
+                block(c, r);
+            }
+        }
+        double towardCentre = Math.atan2(height / 2 - y, width / 2 - x);
+        while (mines.size() <= index) {
+            mines.add(null);
+            forests.add(null);
+        }
+        mines.set(index, site(x, y, towardCentre + SITE_ANGLE, MINE_RADIUS));
+        forests.set(index, site(x, y, towardCentre - SITE_ANGLE, FOREST_RADIUS));
+        publish();
+    }
+
+    /**
+     * Blocks a round site near a town hall.
+     *
+     * @return x and y of the place the peasants work at, the edge of the site on the side of the town hall
+     */
+    private float[] site(float x, float y, double angle, float radius) {
+        float siteX = clampX(x + (float) (SITE_DISTANCE * Math.cos(angle)));
+        float siteY = clampY(y + (float) (SITE_DISTANCE * Math.sin(angle)));
+        blockDisc(siteX, siteY, radius);
+        float edge = (radius + TILE_SIZE) / SITE_DISTANCE;
+        return new float[] { siteX + (x - siteX) * edge, siteY + (y - siteY) * edge };
+    }
+
+    /**
+     * @param index Number of the base in the order of founding, from 0
+     */
+    public synchronized float getMineX(int index) {
+        return mines.get(index)[0];
+    }
+
+    public synchronized float getMineY(int index) {
+        return mines.get(index)[1];
+    }
+
+    public synchronized float getForestX(int index) {
+        return forests.get(index)[0];
+    }
+
+    public synchronized float getForestY(int index) {
+        return forests.get(index)[1];
+    }
+
+    /**
+     * Places a new building on the closest free lot around the town hall,
+     * corners first. The lots are the tiles on even rows and columns counted
+     * from the town hall, the kept flow fields are updated around the lot.
+     *
+     * @return x and y of the building, the town hall if there is no free lot left
+     */
+    synchronized float[] placeBuilding(Base base) {
+        int column = columnOf(base.getX());
+        int row = rowOf(base.getY());
+        for (int ring = 2; ring <= LOT_RANGE; ring += 2) {
+            int lot = -1;
+            int lotCorner = -1;
+            for (int dy = -ring; dy <= ring; dy += 2) {
+                for (int dx = -ring; dx <= ring; dx += 2) {
+                    int c = column + dx;
+                    int r = row + dy;
+                    int corner = Math.abs(dx) + Math.abs(dy);
+                    if (Math.max(Math.abs(dx), Math.abs(dy)) == ring && corner > lotCorner
+                            && c >= 0 && r >= 0 && c < columns && r < rows && !isSet(r * columns + c)) {
+                        lot = r * columns + c;
+                        lotCorner = corner;
+                    }
+                }
+            }
+            if (lot >= 0) {
+                block(lot % columns, lot / columns);
+                publish();
+                return new float[] { centreX(lot), centreY(lot) };
+            }
+        }
+        return new float[] { base.getX(), base.getY() };
+    }
+
+    /**
+     * Finds how long a unit walks between two places. Far from the destination
+     * the way follows the flow field of the free tile closest to it, so every
+     * unit walking there shares one field; close to it a unit walks straight.
+     * A unit walks straight too if there is no way, like out of a closed area.
+     * The way is the one on the terrain of the moment the walk starts.
+     *
+     * @return Milliseconds the walk takes
+     */
+    public int travelTime(float fromX, float fromY, float toX, float toY) {
+        float straight = (float) Math.hypot(toX - fromX, toY - fromY);
+        if (straight <= STRAIGHT_DISTANCE) {
+            return Math.round(straight / SPEED);
+        }
+        Terrain now = terrain;
+        int destination = freeTileNear(now, toX, toY);
+        int start = freeTileNear(now, fromX, fromY);
+        if (destination < 0 || start < 0) {
+            return Math.round(straight / SPEED);
+        }
+        int cost = pathfinder.fieldTo(destination, now).cost(start, now);
+        if (cost == FlowField.UNREACHABLE) {
+            return Math.round(straight / SPEED);
+        }
+        float walk = (float) cost / FlowField.STRAIGHT * TILE_SIZE;
+        return Math.round(Math.max(walk, straight) / SPEED);
+    }
+
+    /**
+     * @return Number of flow fields kept by the pathfinder
+     */
+    public int getFlowFields() {
+        return pathfinder.size();
+    }
+
+    /**
+     * @return Number of flow fields computed by the pathfinder so far
+     */
+    public long getComputedFlowFields() {
+        return pathfinder.getComputed();
+    }
+
+    /**
+     * @return The free tile with the centre closest to the place, searched
+     *         ring by ring around its tile, -1 if there is none close enough
+     */
+    private int freeTileNear(Terrain terrain, float x, float y) {
+        int column = columnOf(x);
+        int row = rowOf(y);
+        if (!terrain.isBlocked(row * columns + column)) {
+            return row * columns + column;
+        }
+        for (int ring = 1; ring <= FREE_TILE_RANGE; ring++) {
+            int found = -1;
+            double closest = Double.MAX_VALUE;
+            for (int r = Math.max(row - ring, 0); r <= Math.min(row + ring, rows - 1); r++) {
+                for (int c = Math.max(column - ring, 0); c <= Math.min(column + ring, columns - 1); c++) {
+                    int tile = r * columns + c;
+                    if (Math.max(Math.abs(c - column), Math.abs(r - row)) == ring && !terrain.isBlocked(tile)) {
+                        double distance = Math.hypot(centreX(tile) - x, centreY(tile) - y);
+                        if (distance < closest) {
+                            found = tile;
+                            closest = distance;
+                        }
+                    }
+                }
+            }
+            if (found >= 0) {
+                return found;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the tile is blocked on the terrain of the moment
+     */
+    public boolean isBlocked(int tile) {
+        return terrain.isBlocked(tile);
+    }
+
+    /**
+     * @return The blocked tiles of the moment
+     */
+    Terrain getTerrain() {
+        return terrain;
+    }
+
+    private void blockDisc(float x, float y, float radius) {
+        for (int r = rowOf(y - radius); r <= rowOf(y + radius); r++) {
+            for (int c = columnOf(x - radius); c <= columnOf(x + radius); c++) {
+                int tile = r * columns + c;
+                if (Math.hypot(centreX(tile) - x, centreY(tile) - y) <= radius) {
+                    block(c, r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks a tile, the flow fields see it once the terrain is published.
+     */
+    private void block(int column, int row) {
+        int tile = row * columns + column;
+        if (column >= 0 && row >= 0 && column < columns && row < rows && !isSet(tile)) {
+            blocked[tile >>> 6] |= 1L << tile;
+            if (blockedCount == history.length) {
+                history = Arrays.copyOf(history, blockedCount * 2);
+            }
+            history[blockedCount++] = tile;
+        }
+    }
+
+    private boolean isSet(int tile) {
+        return (blocked[tile >>> 6] & 1L << tile) != 0;
+    }
+
+    /**
+     * Makes the tiles blocked since the last terrain visible, the kept flow
+     * fields catch up with them the next time they are used.
+     */
+    private void publish() {
+        Terrain last = terrain;
+        if (blockedCount > last.getVersion()) {
+            terrain = new Terrain(columns, rows, blocked.clone(), history, blockedCount);
+            pathfinder.blocked(last, terrain);
+        }
+    }
+
+    private int columnOf(float x) {
+        return Math.min(Math.max((int) (x / TILE_SIZE), 0), columns - 1);
+    }
+
+    private int rowOf(float y) {
+        return Math.min(Math.max((int) (y / TILE_SIZE), 0), rows - 1);
+    }
+
+    private float centreX(int tile) {
+        return (tile % columns + 0.5f) * TILE_SIZE;
+    }
+
+    private float centreY(int tile) {
+        return (tile / columns + 0.5f) * TILE_SIZE;
+    }
+
+    /**
+     * Picks the place of new personnel, uniformly in the circle around its base.
+     *
+     * @return x and y of the place
+     */
+    float[] spawnPoint(Base base, RandomGenerator random) {
+        return pointAround(base.getX(), base.getY(), random);
+    }
+
+    /**
+     * Picks a place uniformly in the circle of {@link #SPAWN_RADIUS} around a point,
+     * the area of a base or of an army lined up.
+     *
+     * @return x and y of the place
+     */
+    float[] pointAround(float x, float y, RandomGenerator random) {
+        double angle = random.nextDouble() * 2 * Math.PI;
+        double distance = SPAWN_RADIUS * Math.sqrt(random.nextDouble());
+        return new float[] {
+                clampX(x + (float) (distance * Math.cos(angle))),
+                clampY(y + (float) (distance * Math.sin(angle)))
+        };
+    }
+
+    public float clampX(float x) {
+        return Math.min(Math.max(x, 0), width);
+    }
+
+    public float clampY(float y) {
+        return Math.min(Math.max(y, 0), height);
+    }
+
+    /**
+     * The blocked tiles of a battlefield at one moment. A terrain never
+     * changes, blocking tiles publishes a new one, so it is read without
+     * locking. The terrains of a battlefield share the tiles in the order they
+     * got blocked, a terrain only reads the ones blocked before it.
+     */
+    static final class Terrain {
+
+        private final int columns;
+        private final int rows;
+        private final long[] blocked;
+        private final int[] history;
+        private final int version;
+
+        Terrain(int columns, int rows, long[] blocked, int[] history, int version) {
+            this.columns = columns;
+            this.rows = rows;
+            this.blocked = blocked;
+            this.history = history;
+            this.version = version;
+        }
+
+        int getColumns() {
+            return columns;
+        }
+
+        int getRows() {
+            return rows;
+        }
+
+        boolean isBlocked(int tile) {
+            return (blocked[tile >>> 6] & 1L << tile) != 0;
+        }
+
+        /**
+         * @return Number of tiles blocked, a later terrain has a higher one
+         */
+        int getVersion() {
+            return version;
+        }
+
+        /**
+         * @param index Number of the tile in the order of blocking, below the version
+         * @return The tile
+         */
+        int getBlocked(int index) {
+            return history[index];
+        }
+
+    }
+
+}
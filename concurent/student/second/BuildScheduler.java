@@ -0,0 +1,140 @@
+package concurent.student.second;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the buildings a base needs, following a {@link TechTree}.
+ *
+ * Every building whose prerequisites exist is ready to be built, the ready
+ * ones are built at the same time by as many free peasants as there are.
+ * The building with the longest chain of work depending on it (its critical
+ * path) goes first, since that chain decides when the army is ready.
+ * Its cost is reserved before a peasant is claimed for it, so the units in
+ * training can not take it in the meantime, and no peasant stands around
+ * while the resources are gathered.
+ */
+public class BuildScheduler {
+
+    private final Base base;
+    private final TechTree techTree;
+    private final Map<UnitType, Integer> goals;
+    private final Map<UnitType, Long> criticalPaths = new EnumMap<>(UnitType.class);
+    private final Map<UnitType, AtomicInteger> underConstruction = new EnumMap<>(UnitType.class);
+    private final SimulationClock clock;
+
+    /**
+     * @param base     The base to build for
+     * @param techTree Dependencies between the types
+     * @param goals    Number of units and buildings the base should have, per type;
+     *                 the units only count in the critical paths, they are trained elsewhere
+     */
+    public BuildScheduler(Base base, TechTree techTree, Map<UnitType, Integer> goals) {
+        this.base = base;
+        this.techTree = techTree;
+        this.goals = new EnumMap<>(goals);
+        this.clock = base.getClock();
+        for (UnitType type : UnitType.values()) {
+            underConstruction.put(type, new AtomicInteger());
+        }
+        for (UnitType type : UnitType.values()) {
+            criticalPath(type);
+        }
+    }
+
+    /**
+     * Builds until every building goal is reached.
+     */
+    public void run() {
+        List<Task> builders = new ArrayList<>();
+        while (!isDone()) {
+            UnitType next = nextReady();
+            if (next == null) {
+                // everything left is waiting for a prerequisite under construction
+                clock.awaitUntil(() -> isDone() || nextReady() != null);
+                continue;
+            }
+            Resources.Reservation cost = reserve(next);
+            Peasant builder = base.awaitFreePeasant();
+            underConstruction.get(next).incrementAndGet();
+            builders.add(clock.start(() -> {
+                try {
+                    builder.startBuilding(next, cost);
+                } finally {
+                    underConstruction.get(next).decrementAndGet();
+                    clock.signalAll();
+                }
+            }));
+        }
+        for (Task builder : builders) {
+            builder.join();
+        }
+    }
+
+    private Resources.Reservation reserve(UnitType type) {
+        Resources resources = base.getResources();
+        Resources.Reservation cost = resources.tryReserve(type.goldCost, type.woodCost, 0);
+        while (cost == null) {
+            resources.awaitAffordable(type.goldCost, type.woodCost, 0);
+            cost = resources.tryReserve(type.goldCost, type.woodCost, 0);
+        }
+        return cost;
+    }
+
+    private boolean isDone() {
+        for (Map.Entry<UnitType, Integer> goal : goals.entrySet()) {
+            if (goal.getKey().isBuilding() && base.getBuildingCount(goal.getKey()) < goal.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The ready building with the longest critical path, null if none is ready
+     */
+    private UnitType nextReady() {
+        UnitType best = null;
+        for (Map.Entry<UnitType, Integer> goal : goals.entrySet()) {
+            UnitType type = goal.getKey();
+            int missing = goal.getValue() - base.getBuildingCount(type) - underConstruction.get(type).get();
+            if (type.isBuilding() && missing > 0 && prerequisitesBuilt(type)
+                    && (best == null || criticalPath(type) > criticalPath(best))) {
+                best = type;
+            }
+        }
+        return best;
+    }
+
+    private boolean prerequisitesBuilt(UnitType type) {
+        for (UnitType prerequisite : techTree.getPrerequisites(type)) {
+            if (prerequisite.isBuilding() && !base.hasEnoughBuilding(prerequisite, 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Length of the longest chain of work starting with the type:
+     * one building of a type can be built in parallel with the others,
+     * the units of a type are trained one after the other.
+     */
+    private long criticalPath(UnitType type) {
+        Long cached = criticalPaths.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        long own = type.isBuilding() ? type.buildTime : (long) type.buildTime * goals.getOrDefault(type, 0);
+        long longestDependent = 0;
+        for (UnitType dependent : techTree.getDependents(type)) {
+            longestDependent = Math.max(longestDependent, criticalPath(dependent));
+        }
+        criticalPaths.put(type, own + longestDependent);
+        return own + longestDependent;
+    }
+
+}
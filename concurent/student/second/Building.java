@@ -2,8 +2,25 @@ package concurent.student.second;
 
 public class Building extends Unit {
 
+    // the tile of the building, around the town hall
+    private final float x;
+    private final float y;
+
     private Building(Base owner, UnitType type){
         super(owner, type);
+        float[] place = owner.getWorld().getBattlefield().placeBuilding(owner);
+        this.x = place[0];
+        this.y = place[1];
+    }
+
+    @Override
+    public float getX() {
+        return x;
+    }
+
+    @Override
+    public float getY() {
+        return y;
     }
 
     public static Building createBuilding(UnitType type, Base owner){
@@ -18,8 +35,15 @@ public class Building extends Unit {
         return null;
     }
 
+    /**
+     * Creates a building that was already built, for a base restored from a {@link Checkpoint}.
+     */
+    static Building restoreBuilding(UnitType type, Base owner){
+        return new Building(owner, type);
+    }
+
     public static Building createFarm(Base owner){
-        System.out.println(owner.getName() + " is creating farm");
+        owner.getLog().log(GameEvent.BUILDING_STARTED, owner.getName(), UnitType.FARM);
         Building farm = new Building(owner, UnitType.FARM);
         // building a farm increases the capacity
         owner.getResources().farmBuilt();
@@ -27,17 +51,17 @@ public class Building extends Unit {
     }
 
     public static Building createLumbermill(Base owner){
-        System.out.println(owner.getName() + " is creating lumbermill");
+        owner.getLog().log(GameEvent.BUILDING_STARTED, owner.getName(), UnitType.LUMBERMILL);
         return new Building(owner, UnitType.LUMBERMILL);
     }
 
     public static Building createBlacksmith(Base owner){
-        System.out.println(owner.getName() + " is creating blacksmith");
+        owner.getLog().log(GameEvent.BUILDING_STARTED, owner.getName(), UnitType.BLACKSMITH);
         return new Building(owner, UnitType.BLACKSMITH);
     }
 
     public static Building createBarracks(Base owner){
-        System.out.println(owner.getName() + " is creating barracks");
+        owner.getLog().log(GameEvent.BUILDING_STARTED, owner.getName(), UnitType.BARRACKS);
         return new Building(owner, UnitType.BARRACKS);
     }
 }
@@ -0,0 +1,15 @@
+package concurent.student.second;
+
+/**
+ * Gets notified whenever a base finishes a building.
+ */
+public interface BuildingListener {
+
+    /**
+     * @param base  The base that finished the building
+     * @param type  Type of the building
+     * @param count Number of buildings of this type the base has now
+     */
+    void buildingCompleted(Base base, UnitType type, int count);
+
+}
@@ -0,0 +1,83 @@
+package concurent.student.second;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cancellation of a simulation, shared by everything running on one clock.
+ *
+ * Once cancelled, every unit blocked in the clock wakes up, and every call
+ * of the clock that would block throws a {@link CancellationException}, so
+ * the loops of the units end at their next sleep or wait. The simulation is
+ * also cancelled when its clock reaches the deadline.
+ */
+public final class Cancellation {
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile String reason;
+    private volatile long deadline = NO_DEADLINE;
+
+    /**
+     * Cancels the simulation, only the first call has an effect.
+     *
+     * @param reason Why the simulation was cancelled
+     */
+    public void cancel(String reason) {
+        synchronized (this) {
+            if (this.reason != null) {
+                return;
+            }
+            this.reason = reason;
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * @return Why the simulation was cancelled, null if it was not
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @param deadline Time on the clock when the simulation is cancelled,
+     *                 {@link #NO_DEADLINE} to let it run forever
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @throws CancellationException if the simulation is cancelled
+     */
+    public void throwIfCancelled() {
+        if (reason != null) {
+            throw new CancellationException("The simulation was cancelled: " + reason);
+        }
+    }
+
+    /**
+     * Runs the listener when the simulation is cancelled, used by the clocks
+     * to wake their units. The listener must not block.
+     */
+    void onCancel(Runnable listener) {
+        listeners.add(listener);
+        if (isCancelled()) {
+            listener.run();
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package concurent.student.second;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state of the bases of a match at one moment, which can be saved
+ * and later restored to continue the match from there.
+ *
+ * Taking a checkpoint only copies the state of the bases into memory,
+ * writing it out happens afterwards. The clock is paused while the bases are
+ * copied, every unit waits in a call of the clock, so the copy is consistent
+ * on the wall clock as well.
+ *
+ * Work in progress is not saved as it is: every cost reserved and not spent
+ * yet is given back, the buildings under construction, the units in training
+ * and the buildings waiting for a builder alike. The preparation of the
+ * restored base starts them again. The assignment of the builder
+ * is kept in the checkpoint, he is restored as a free peasant.
+ *
+ * A match resumed from a checkpoint goes on like the match that took it, so
+ * the checkpoint keeps the seed of the world, the places of the personnel,
+ * the order of the armies and every random generator. A generator does not
+ * tell its state: taking a checkpoint restarts the generators of the world,
+ * of the bases and of the units with a seed drawn from each, and saves the
+ * seeds. Resume a checkpoint in a world created with its seed.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x57434331;
+    private static final int VERSION = 2;
+
+    private static final byte IDLE = 0;
+    private static final byte MINING = 1;
+    private static final byte CUTTING_WOOD = 2;
+    private static final byte BUILDING = 3;
+
+    private final long seed;
+    private final long time;
+    // seed of the generator the world splits new ones from
+    private final long random;
+    private final List<BaseState> bases;
+
+    private Checkpoint(long seed, long time, long random, List<BaseState> bases) {
+        this.seed = seed;
+        this.time = time;
+        this.random = random;
+        this.bases = bases;
+    }
+
+    /**
+     * Copies the state of the given bases, while their clock is paused.
+     * Call it from a task of the clock of the bases.
+     *
+     * @param bases The bases of the match
+     * @return The checkpoint
+     */
+    public static Checkpoint take(Base... bases) {
+        List<BaseState> states = new ArrayList<>();
+        if (bases.length == 0) {
+            return new Checkpoint(0, 0, 0, states);
+        }
+        World world = bases[0].getWorld();
+        SimulationClock clock = world.getClock();
+        long[] time = new long[2];
+        clock.pause(() -> {
+            for (Base base : bases) {
+                states.add(base.checkpoint());
+            }
+            time[0] = clock.currentTimeMillis();
+            time[1] = world.reseed();
+        });
+        return new Checkpoint(world.getSeed(), time[0], time[1], states);
+    }
+
+    /**
+     * Creates the bases of the checkpoint in the given world and sets their
+     * peasants back to harvesting. Call it from a task of the clock of the world.
+     *
+     * @param world The world to restore the bases into
+     * @return The restored bases, in the order they were saved
+     */
+    public Base[] restore(World world) {
+        Base[] restored = new Base[bases.size()];
+        for (int i = 0; i < restored.length; i++) {
+            restored[i] = Base.restore(world, bases.get(i));
+        }
+        world.restoreRandom(random);
+        return restored;
+    }
+
+    /**
+     * @return Seed of the world of the match, the world to resume it in needs the same
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return Time of the clock of the match when the checkpoint was taken
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public void write(Path file) {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the checkpoint " + file, e);
+        }
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(seed);
+        out.writeLong(time);
+        out.writeLong(random);
+        out.writeInt(bases.size());
+        for (BaseState base : bases) {
+            out.writeUTF(base.name);
+            out.writeInt(base.gold);
+            out.writeInt(base.wood);
+            out.writeInt(base.capacity);
+            out.writeInt(base.capacityLimit);
+            out.writeInt(base.lastUnitId);
+            out.writeLong(base.random);
+            writeUnits(out, base.buildings);
+            writeUnits(out, base.peasants);
+            writeUnits(out, base.footmen);
+        }
+        out.flush();
+    }
+
+    private static void writeUnits(DataOutputStream out, List<UnitState> units) throws IOException {
+        out.writeInt(units.size());
+        for (UnitState unit : units) {
+            out.writeByte(unit.type.ordinal());
+            out.writeInt(unit.id);
+            out.writeInt(unit.health);
+            out.writeByte(unit.task);
+            out.writeByte(unit.building == null ? -1 : unit.building.ordinal());
+            out.writeInt(unit.armySlot);
+            out.writeFloat(unit.x);
+            out.writeFloat(unit.y);
+            out.writeLong(unit.random);
+        }
+    }
+
+    public static Checkpoint read(Path file) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the checkpoint " + file, e);
+        }
+    }
+
+    public static Checkpoint read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a checkpoint");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unknown checkpoint version " + version);
+        }
+        long seed = in.readLong();
+        long time = in.readLong();
+        long random = in.readLong();
+        int count = in.readInt();
+        List<BaseState> bases = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            BaseState base = new BaseState(in.readUTF());
+            base.gold = in.readInt();
+            base.wood = in.readInt();
+            base.capacity = in.readInt();
+            base.capacityLimit = in.readInt();
+            base.lastUnitId = in.readInt();
+            base.random = in.readLong();
+            readUnits(in, base.buildings);
+            readUnits(in, base.peasants);
+            readUnits(in, base.footmen);
+            bases.add(base);
+        }
+        return new Checkpoint(seed, time, random, bases);
+    }
+
+    private static void readUnits(DataInputStream in, List<UnitState> units) throws IOException {
+        UnitType[] types = UnitType.values();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            UnitState unit = new UnitState(types[in.readByte()], in.readInt());
+            unit.health = in.readInt();
+            unit.task = in.readByte();
+            int building = in.readByte();
+            unit.building = building < 0 ? null : types[building];
+            unit.armySlot = in.readInt();
+            unit.x = in.readFloat();
+            unit.y = in.readFloat();
+            unit.random = in.readLong();
+            units.add(unit);
+        }
+    }
+
+    /**
+     * The saved state of a base, costs of work in progress already given back.
+     */
+    static final class BaseState {
+
+        final String name;
+        int gold;
+        int wood;
+        int capacity;
+        int capacityLimit;
+        int lastUnitId;
+        // seed of the generator the base splits the ones of new units from
+        long random;
+        final List<UnitState> buildings = new ArrayList<>();
+        final List<UnitState> peasants = new ArrayList<>();
+        final List<UnitState> footmen = new ArrayList<>();
+
+        BaseState(String name) {
+            this.name = name;
+        }
+
+        void refund(Resources.Reservation cost) {
+            gold += cost.getGold();
+            wood += cost.getWood();
+            capacity -= cost.getFood();
+        }
+    }
+
+    /**
+     * The saved state of a unit.
+     */
+    static final class UnitState {
+
+        final UnitType type;
+        final int id;
+        int health;
+        byte task = IDLE;
+        // the building the peasant was working on
+        UnitType building;
+        // position in the army of the base, -1 if not in it
+        int armySlot = -1;
+        // place and seed of the random generator of personnel
+        float x;
+        float y;
+        long random;
+
+        UnitState(UnitType type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        static UnitState of(Building building) {
+            return new UnitState(building.getUnitType(), building.getId());
+        }
+
+        static UnitState of(Personnel personnel) {
+            UnitState state = new UnitState(personnel.getUnitType(), personnel.getId());
+            state.health = personnel.getHealth();
+            state.armySlot = personnel.armySlot;
+            state.x = personnel.getX();
+            state.y = personnel.getY();
+            state.random = personnel.reseed();
+            if (personnel instanceof Peasant) {
+                Peasant peasant = (Peasant) personnel;
+                if (peasant.isMining()) {
+                    state.task = MINING;
+                } else if (peasant.isCuttingWood()) {
+                    state.task = CUTTING_WOOD;
+                } else if (peasant.getBuilding() != null) {
+                    state.task = BUILDING;
+                    state.building = peasant.getBuilding();
+                }
+            }
+            return state;
+        }
+
+        boolean isMining() {
+            return task == MINING;
+        }
+
+        boolean isCuttingWood() {
+            return task == CUTTING_WOOD;
+        }
+    }
+
+}
@@ -0,0 +1,500 @@
+package concurent.student.second;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Resolves a war between armies in ticks, instead of one thread per soldier.
+ * With more than two armies it is a free-for-all: every army is the enemy
+ * of every other one, and the war goes on until at most one of them is left.
+ *
+ * Every tick the engine gathers the attacks of the soldiers that are ready,
+ * applies all the damage, and only then processes the deaths, so a soldier
+ * killed in a tick still strikes back in the same tick, no matter how the
+ * threads are scheduled. Soldiers waiting for their next attack sit in a
+ * timing wheel, so a tick only touches the soldiers that attack in it.
+ *
+ * A soldier keeps attacking his opponent until one of them dies, then picks
+ * a new one. A soldier without an opponent turns to the enemy nearest to him;
+ * one whose opponent fell turns to the comrade of the fallen standing nearest
+ * to the place he fell, so the soldiers push into the enemy line where they
+ * already are, and the search stays among neighbouring cells instead of
+ * crossing the battlefield. The living soldiers of every side are indexed in a
+ * {@link SpatialGrid}, the fallen ones are taken out of it as their deaths
+ * are processed.
+ *
+ * Before the fighting the armies march to a front in the middle of their
+ * bases, and every side lines up on its own side of it. The way of every
+ * soldier is looked up in the flow field of the front, which all of them
+ * share, and an army keeps its formation, so it marches at the pace of the
+ * soldier with the longest way. The army that gets there first waits for the
+ * next one, the two start fighting together, and every other army joins the
+ * fight as it arrives. Once at the front the soldiers hold their places, so
+ * the lines do not crowd into the few cells where they meet.
+ *
+ * The health and the attack of the soldiers are read, and the health is
+ * changed, in the {@link UnitStore} of the world by the slots of the soldiers,
+ * without going through them.
+ *
+ * Every soldier draws from his own random generator and the deaths of a tick
+ * are processed in a fixed order, so the outcome of a war does not depend on
+ * the number of threads it is resolved on.
+ */
+public class CombatEngine {
+
+    public static final int DEFAULT_TICK = 10;
+
+    // below this many attacks a tick is not worth splitting between threads
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final Base[] sides;
+    private final SimulationClock clock;
+    private final int threads;
+    private final int tick;
+    private final Journal journal;
+
+    private final Personnel[] units;
+    private final UnitStore store;
+    // slot of every soldier in the store
+    private final int[] slots;
+    // the random generator of every soldier, he draws his attacks from it
+    private final SplittableRandom[] randoms;
+    private final int[] sideOf;
+    private final int[] opponent;
+    // index of the first soldier of each side
+    private final int[] first;
+    // living soldiers of each side, by their index minus the first of the side
+    private final SpatialGrid[] grids;
+    private final int[] aliveCount;
+    // sides with living soldiers, counted down as the last soldier of one dies
+    private int standing;
+    // the soldiers on their way to the front, as the tick they arrive in and their index, in the order they arrive
+    private final long[] marching;
+    private int arrived;
+    // soldiers at the front without anybody to attack, until the next army arrives
+    private final IntList waiting = new IntList();
+
+    // slot i holds the soldiers attacking in the ticks equal to i modulo the number of slots
+    private final IntList[] wheel;
+
+    // scratch space of the current tick
+    private int[] targets = new int[0];
+    private int[] damages = new int[0];
+    private int[] waits = new int[0];
+    private final IntList deaths = new IntList();
+    private Personnel[] fallen = new Personnel[16];
+    private long tickTime;
+
+    private ForkJoinPool pool;
+
+    public CombatEngine(Base first, Base second) {
+        this(first, second, 1, DEFAULT_TICK);
+    }
+
+    /**
+     * @param first   One side of the war
+     * @param second  The other side of the war
+     * @param threads Number of threads to gather and apply the attacks of big ticks on
+     * @param tick    Length of a tick in milliseconds
+     */
+    public CombatEngine(Base first, Base second, int threads, int tick) {
+        this(new Base[] { first, second }, threads, tick);
+    }
+
+    /**
+     * @param sides   The bases at war, all against all
+     * @param threads Number of threads to gather and apply the attacks of big ticks on
+     * @param tick    Length of a tick in milliseconds
+     */
+    public CombatEngine(Base[] sides, int threads, int tick) {
+        if (threads < 1 || tick < 1) {
+            throw new IllegalArgumentException("threads and tick must be positive");
+        }
+        if (sides.length < 2) {
+            throw new IllegalArgumentException("a war needs at least two sides");
+        }
+        this.sides = sides.clone();
+        this.clock = sides[0].getClock();
+        this.threads = threads;
+        this.tick = tick;
+        this.journal = sides[0].getWorld().getJournal();
+        this.store = sides[0].getWorld().getUnits();
+
+        // the soldiers of a side are next to each other, in the order of the sides
+        Personnel[][] armies = new Personnel[sides.length][];
+        int total = 0;
+        for (int side = 0; side < sides.length; side++) {
+            armies[side] = sides[side].getArmy().toArray();
+            total += armies[side].length;
+        }
+        this.units = new Personnel[total];
+        this.slots = new int[total];
+        this.randoms = new SplittableRandom[total];
+        this.sideOf = new int[total];
+        this.opponent = new int[total];
+        this.first = new int[sides.length];
+        this.grids = new SpatialGrid[sides.length];
+        this.aliveCount = new int[sides.length];
+        Arrays.fill(opponent, -1);
+
+        this.wheel = new IntList[(Personnel.ATTACK_WAIT_MAXIMUM + tick - 1) / tick + 2];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new IntList();
+        }
+        Battlefield battlefield = sides[0].getWorld().getBattlefield();
+        float frontX = 0;
+        float frontY = 0;
+        for (Base side : sides) {
+            frontX += side.getX() / sides.length;
+            frontY += side.getY() / sides.length;
+        }
+        int[] march = new int[sides.length];
+        int i = 0;
+        for (int side = 0; side < sides.length; side++) {
+            first[side] = i;
+            // the side lines up in a circle on its own side of the front, touching it
+            float awayX = sides[side].getX() - frontX;
+            float awayY = sides[side].getY() - frontY;
+            float away = (float) Math.sqrt(awayX * awayX + awayY * awayY);
+            float lineX = away > 0 ? frontX + awayX / away * Battlefield.SPAWN_RADIUS : frontX;
+            float lineY = away > 0 ? frontY + awayY / away * Battlefield.SPAWN_RADIUS : frontY;
+            for (Personnel unit : armies[side]) {
+                units[i] = unit;
+                sideOf[i] = side;
+                slots[i] = unit.getSlot();
+                randoms[i] = unit.getRandom();
+                if (store.getHealth(slots[i]) > 0) {
+                    float x = store.getX(slots[i]);
+                    float y = store.getY(slots[i]);
+                    march[side] = Math.max(march[side], battlefield.travelTime(x, y, frontX, frontY));
+                    unit.lineUp(lineX, lineY);
+                    aliveCount[side]++;
+                }
+                i++;
+            }
+            grids[side] = gridFor(armies[side]);
+        }
+        // the army that gets to the front first waits there for the next one
+        int[] arrival = new int[sides.length];
+        for (int side = 0; side < sides.length; side++) {
+            arrival[side] = aliveCount[side] > 0 ? 1 + march[side] / tick : Integer.MAX_VALUE;
+        }
+        for (int side = 0; side < sides.length; side++) {
+            if (aliveCount[side] > 0) {
+                standing++;
+            }
+        }
+        int[] order = arrival.clone();
+        Arrays.sort(order);
+        long[] arrivals = new long[total];
+        int marchers = 0;
+        for (int unit = 0; unit < total; unit++) {
+            if (store.getHealth(slots[unit]) > 0) {
+                long joins = Math.max(arrival[sideOf[unit]], order[1]);
+                arrivals[marchers++] = joins << 32 | unit;
+            }
+        }
+        this.marching = Arrays.copyOf(arrivals, marchers);
+        Arrays.sort(marching);
+    }
+
+    /**
+     * @return An empty grid over the area of the army
+     */
+    private SpatialGrid gridFor(Personnel[] army) {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (Personnel unit : army) {
+            int slot = unit.getSlot();
+            minX = Math.min(minX, store.getX(slot));
+            minY = Math.min(minY, store.getY(slot));
+            maxX = Math.max(maxX, store.getX(slot));
+            maxY = Math.max(maxY, store.getY(slot));
+        }
+        if (army.length == 0) {
+            return new SpatialGrid(1);
+        }
+        return SpatialGrid.covering(minX, minY, maxX, maxY, army.length);
+    }
+
+    /**
+     * Fights the war until at most one of the armies is left.
+     *
+     * @return The base that won, or null if the last armies destroyed each other
+     */
+    public Base run() {
+        long currentTick = 0;
+        for (Base side : sides) {
+            side.warStarted();
+        }
+        try {
+            while (standing > 1) {
+                // empty ticks are skipped by sleeping through them at once
+                long nextTick = nextBusyTick(currentTick + 1);
+                clock.sleep((nextTick - currentTick) * tick);
+                currentTick = nextTick;
+                resolveTick(currentTick);
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            for (Base side : sides) {
+                side.warEnded();
+            }
+        }
+        for (int side = 0; side < sides.length; side++) {
+            if (aliveCount[side] > 0) {
+                return sides[side];
+            }
+        }
+        return null;
+    }
+
+    private long nextBusyTick(long from) {
+        long arrival = arrived < marching.length ? Math.max(from, marching[arrived] >>> 32) : Long.MAX_VALUE;
+        for (long t = from; t < from + wheel.length && t < arrival; t++) {
+            if (wheel[slot(t)].size > 0) {
+                return t;
+            }
+        }
+        return arrival == Long.MAX_VALUE ? from : arrival;
+    }
+
+    private int slot(long tickNumber) {
+        return (int) (tickNumber % wheel.length);
+    }
+
+    private void resolveTick(long currentTick) {
+        IntList ready = wheel[slot(currentTick)];
+        // the soldiers getting to the front join the fight, from then on they can be attacked
+        if (arrived < marching.length && marching[arrived] >>> 32 <= currentTick) {
+            ready.addAll(waiting);
+            waiting.clear();
+        }
+        while (arrived < marching.length && marching[arrived] >>> 32 <= currentTick) {
+            int unit = (int) marching[arrived++];
+            grids[sideOf[unit]].insert(unit - first[sideOf[unit]], store.getX(slots[unit]), store.getY(slots[unit]));
+            ready.add(unit);
+        }
+        int count = ready.size;
+        tickTime = clock.currentTimeMillis();
+        if (targets.length < count) {
+            int length = Math.max(count, targets.length * 2);
+            targets = new int[length];
+            damages = new int[length];
+            waits = new int[length];
+        }
+
+        // gather every attack, then apply all the damage
+        if (threads > 1 && count >= PARALLEL_THRESHOLD) {
+            inParallel(count, (from, to) -> gather(ready.values, from, to));
+            List<IntList> died = inParallel(count, (from, to) -> apply(from, to));
+            for (IntList part : died) {
+                deaths.addAll(part);
+            }
+        } else {
+            gather(ready.values, 0, count);
+            deaths.addAll(apply(0, count));
+        }
+
+        // process the deaths of the tick, in the same order whichever hit was the killing one;
+        // the soldiers of a side are next to each other, so every side gets its deaths in a single batch
+        Arrays.sort(deaths.values, 0, deaths.size);
+        if (fallen.length < deaths.size) {
+            fallen = new Personnel[Math.max(deaths.size, fallen.length * 2)];
+        }
+        int fell = 0;
+        for (int i = 0; i < deaths.size; i++) {
+            int dead = deaths.values[i];
+            removeAlive(dead);
+            fallen[fell++] = units[dead];
+            if (i + 1 == deaths.size || sideOf[deaths.values[i + 1]] != sideOf[dead]) {
+                sides[sideOf[dead]].signalPersonnelDeaths(fallen, fell);
+                fell = 0;
+            }
+        }
+        Arrays.fill(fallen, 0, deaths.size, null);
+        deaths.clear();
+
+        // the soldiers that are still alive attack again after their wait
+        long now = currentTick * tick;
+        for (int i = 0; i < count; i++) {
+            int attacker = ready.values[i];
+            if (store.getHealth(slots[attacker]) <= 0) {
+                continue;
+            }
+            if (targets[i] >= 0) {
+                // rounded up, an attack never comes before its wait is over
+                long due = Math.max(currentTick + 1, (now + waits[i] + tick - 1) / tick);
+                wheel[slot(due)].add(attacker);
+            } else if (arrived < marching.length) {
+                waiting.add(attacker);
+            }
+        }
+        ready.clear();
+    }
+
+    /**
+     * Chooses the target, the damage and the next wait of the ready soldiers.
+     * A dead soldier, or one without anybody left to attack, gets -1 as target.
+     */
+    private Void gather(int[] ready, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int attacker = ready[i];
+            int target = opponent[attacker];
+            if (store.getHealth(slots[attacker]) <= 0) {
+                target = -1;
+            } else if (target < 0) {
+                target = nearestEnemy(attacker);
+            } else if (store.getHealth(slots[target]) <= 0) {
+                target = nextInLine(attacker, target);
+            }
+            opponent[attacker] = target;
+            targets[i] = target;
+            if (target >= 0) {
+                int slot = slots[attacker];
+                damages[i] = Personnel.attack(randoms[attacker], store.getAttackMin(slot), store.getAttackMax(slot));
+                waits[i] = Personnel.attackWait(randoms[attacker]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the living soldier closest to the attacker, on every side but his own.
+     * The grids are only read here, the dead leave them after every attack is gathered.
+     *
+     * @return The enemy, -1 if there is none left
+     */
+    private int nearestEnemy(int attacker) {
+        int ownSide = sideOf[attacker];
+        float x = store.getX(slots[attacker]);
+        float y = store.getY(slots[attacker]);
+        int nearest = -1;
+        float range = Float.POSITIVE_INFINITY;
+        for (int side = 0; side < sides.length; side++) {
+            if (side == ownSide || aliveCount[side] == 0) {
+                continue;
+            }
+            // a side only has to beat the nearest enemy found so far
+            int found = grids[side].nearest(x, y, range);
+            if (found >= 0) {
+                nearest = first[side] + found;
+                float dx = grids[side].getX(found) - x;
+                float dy = grids[side].getY(found) - y;
+                range = (float) Math.sqrt(dx * dx + dy * dy);
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Finds the living soldier of the same side standing nearest to a fallen one.
+     *
+     * @return The enemy, the one nearest to the attacker if the side of the fallen is gone
+     */
+    private int nextInLine(int attacker, int fallen) {
+        int side = sideOf[fallen];
+        int found = grids[side].nearest(store.getX(slots[fallen]), store.getY(slots[fallen]));
+        return found >= 0 ? first[side] + found : nearestEnemy(attacker);
+    }
+
+    /**
+     * @return The soldiers killed by the attacks in the range
+     */
+    private IntList apply(int from, int to) {
+        IntList died = new IntList();
+        long[] damageTaken = new long[sides.length];
+        for (int i = from; i < to; i++) {
+            int target = targets[i];
+            if (target >= 0) {
+                damageTaken[sideOf[target]] += damages[i];
+                if (journal.isEnabled()) {
+                    Personnel unit = units[target];
+                    journal.record(tickTime, Journal.Kind.DAMAGE, sides[sideOf[target]].getJournalId(),
+                            unit.getUnitType(), unit.getId(), damages[i]);
+                }
+                int before = store.damage(slots[target], damages[i]);
+                if (before > 0 && before - damages[i] <= 0) {
+                    died.add(target);
+                }
+            }
+        }
+        for (int side = 0; side < sides.length; side++) {
+            sides[side].recordDamage(damageTaken[side]);
+        }
+        return died;
+    }
+
+    private void removeAlive(int unit) {
+        int side = sideOf[unit];
+        if (--aliveCount[side] == 0) {
+            standing--;
+        }
+        grids[side].remove(unit - first[side]);
+    }
+
+    private <T> List<T> inParallel(int count, RangeTask<T> task) {
+        if (pool == null) {
+            pool = new ForkJoinPool(threads);
+        }
+        int chunk = (count + threads - 1) / threads;
+        List<Callable<T>> parts = new ArrayList<>();
+        for (int from = 0; from < count; from += chunk) {
+            int start = from;
+            int end = Math.min(count, from + chunk);
+            parts.add(() -> task.run(start, end));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> part : pool.invokeAll(parts)) {
+                results.add(part.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving a tick", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to resolve a tick", e.getCause());
+        }
+        return results;
+    }
+
+    private interface RangeTask<T> {
+        T run(int from, int to);
+    }
+
+    /**
+     * Growable list of primitive ints, so the hot loops do not box.
+     */
+    static final class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+}
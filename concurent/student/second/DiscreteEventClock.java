@@ -0,0 +1,333 @@
+package concurent.student.second;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Discrete-event clock, time only exists in the simulation.
+ *
+ * Unit threads are participants of the simulation. Whenever a participant
+ * sleeps, a timestamped event is put into a priority queue and the participant
+ * is parked. Once every participant is parked, the clock jumps to the
+ * earliest event and releases exactly one participant, so at any moment at most
+ * one unit thread is running. Events with the same timestamp are released in
+ * the order they were scheduled, which keeps the order of things the same as
+ * in real time, without ever waiting for the real time to pass.
+ *
+ * Cancelling the simulation releases every parked participant at once, so
+ * they can all unwind. The simulation is cancelled as well when its next
+ * event is past the deadline, or when every participant waits for a
+ * condition and nothing is scheduled, as nothing could ever change then.
+ */
+public class DiscreteEventClock implements SimulationClock {
+
+    private final UnitExecutor executor;
+    private final Cancellation cancellation = new Cancellation();
+
+    // guards every field below, now is only read without it
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private volatile long now;
+    private long sequence;
+    private int running;
+
+    public DiscreteEventClock(UnitExecutor executor) {
+        this.executor = executor;
+        cancellation.onCancel(this::releaseAll);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void sleep(long millis) {
+        Event event;
+        stateLock.lock();
+        try {
+            cancellation.throwIfCancelled();
+            event = schedule(Thread.currentThread(), now + Math.max(0, millis));
+            running--;
+            advance();
+        } finally {
+            stateLock.unlock();
+        }
+        park(event);
+        cancellation.throwIfCancelled();
+    }
+
+    @Override
+    public Task start(Runnable body) {
+        Task task = new Task(this);
+        Event startEvent;
+        stateLock.lock();
+        try {
+            // the new participant starts parked, it is released once it is its turn
+            startEvent = schedule(null, now);
+        } finally {
+            stateLock.unlock();
+        }
+        executor.execute(() -> {
+            startEvent.thread = Thread.currentThread();
+            park(startEvent);
+            try {
+                if (!cancellation.isCancelled()) {
+                    body.run();
+                }
+            } catch (CancellationException e) {
+                if (!cancellation.isCancelled()) {
+                    throw e;
+                }
+            } finally {
+                task.markDone();
+                leave();
+            }
+        });
+        return task;
+    }
+
+    @Override
+    public void join(Task task) {
+        awaitUntil(task::isDone);
+    }
+
+    @Override
+    public void await(CountDownLatch latch) {
+        awaitUntil(() -> latch.getCount() == 0);
+    }
+
+    @Override
+    public void signalAll() {
+        // conditions are checked anyway, whenever every participant is parked
+    }
+
+    @Override
+    public void pause(Runnable action) {
+        // the calling participant is the only one running anyway
+        action.run();
+    }
+
+    @Override
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    @Override
+    public UnitExecutor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void run(Runnable body) {
+        stateLock.lock();
+        try {
+            running++;
+        } finally {
+            stateLock.unlock();
+        }
+        try {
+            body.run();
+        } finally {
+            leave();
+        }
+    }
+
+    /**
+     * Parks the calling participant until the condition holds.
+     * The condition is checked whenever every participant is parked,
+     * so it must only read the state of the simulation.
+     *
+     * @param condition The condition to wait for
+     */
+    @Override
+    public void awaitUntil(BooleanSupplier condition) {
+        Waiter waiter;
+        stateLock.lock();
+        try {
+            cancellation.throwIfCancelled();
+            if (condition.getAsBoolean()) {
+                return;
+            }
+            waiter = new Waiter(Thread.currentThread(), condition);
+            waiters.add(waiter);
+            running--;
+            advance();
+        } finally {
+            stateLock.unlock();
+        }
+        park(waiter);
+        cancellation.throwIfCancelled();
+    }
+
+    @Override
+    public boolean awaitUntil(BooleanSupplier condition, long millis) {
+        Waiter waiter;
+        Event timeout;
+        stateLock.lock();
+        try {
+            cancellation.throwIfCancelled();
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            // the event only moves time forward, the waiter sees it in its condition
+            long deadline = now + Math.max(0, millis);
+            timeout = schedule(null, deadline);
+            timeout.timeout = true;
+            waiter = new Waiter(Thread.currentThread(), () -> condition.getAsBoolean() || now >= deadline);
+            waiters.add(waiter);
+            running--;
+            advance();
+        } finally {
+            stateLock.unlock();
+        }
+        park(waiter);
+        stateLock.lock();
+        try {
+            events.remove(timeout);
+        } finally {
+            stateLock.unlock();
+        }
+        cancellation.throwIfCancelled();
+        return condition.getAsBoolean();
+    }
+
+    private void leave() {
+        stateLock.lock();
+        try {
+            running--;
+            advance();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private Event schedule(Thread thread, long time) {
+        Event event = new Event(thread, time, sequence++);
+        events.add(event);
+        return event;
+    }
+
+    /**
+     * Moves the simulation forward if every participant is parked.
+     * Waiters whose condition became true are released first, since they
+     * could still act at the current time, then the earliest event is released.
+     */
+    private void advance() {
+        if (running > 0) {
+            return;
+        }
+        while (true) {
+            Iterator<Waiter> it = waiters.iterator();
+            while (it.hasNext()) {
+                Waiter waiter = it.next();
+                if (waiter.condition.getAsBoolean()) {
+                    it.remove();
+                    release(waiter);
+                    return;
+                }
+            }
+            Event event = events.peek();
+            if (event == null) {
+                if (!waiters.isEmpty()) {
+                    cancellation.cancel("every unit is waiting for something that can not happen");
+                }
+                return;
+            }
+            long deadline = cancellation.getDeadline();
+            if (event.time > deadline) {
+                now = Math.max(now, deadline);
+                cancellation.cancel("the deadline was reached");
+                return;
+            }
+            events.poll();
+            now = Math.max(now, event.time);
+            if (!event.timeout) {
+                release(event);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Releases every parked participant, once the simulation is cancelled.
+     */
+    private void releaseAll() {
+        stateLock.lock();
+        try {
+            for (Waiter waiter : waiters) {
+                release(waiter);
+            }
+            waiters.clear();
+            Event event;
+            while ((event = events.poll()) != null) {
+                if (!event.timeout) {
+                    release(event);
+                }
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void release(Waiter waiter) {
+        running++;
+        waiter.released = true;
+        LockSupport.unpark(waiter.thread);
+    }
+
+    private static void park(Waiter waiter) {
+        boolean interrupted = false;
+        while (!waiter.released) {
+            LockSupport.park(waiter);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Waiter {
+        // set by the participant itself, when it only gets a thread after being scheduled
+        volatile Thread thread;
+        final BooleanSupplier condition;
+        volatile boolean released;
+
+        Waiter(Thread thread, BooleanSupplier condition) {
+            this.thread = thread;
+            this.condition = condition;
+        }
+    }
+
+    private static final class Event extends Waiter implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        // only moves time forward, for a waiter with a time limit, nobody is released
+        boolean timeout;
+
+        Event(Thread thread, long time, long sequence) {
+            super(thread, null);
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+package concurent.student.second;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Cost of the cheapest walk from every tile of a {@link Battlefield} to one
+ * destination tile. It is shared by every unit heading to the destination:
+ * the cost of the tile of a unit is the length of its walk, and the way goes
+ * to the neighbouring tile with the lowest cost.
+ *
+ * A unit steps to the eight neighbouring tiles. A diagonal step costs about
+ * the square root of two straight ones, and is only taken if both tiles
+ * beside it are free, so a unit does not cut the corner of an obstacle.
+ *
+ * The field spreads from the destination only as far as it is asked for:
+ * the tiles are reached in the order of their cost, and a tile is known once
+ * every tile still to visit costs more. A peasant walking between its town
+ * hall and its mine only reaches the tiles around the mine, so the costs are
+ * kept in square chunks of tiles, made when the first tile of one is reached.
+ *
+ * The field belongs to one {@link Battlefield.Terrain}. Asked about a newer
+ * one, it catches up with the tiles blocked since: only the tiles whose
+ * cheapest walk went through them are reached again. They are visited in the
+ * order of their old cost: a tile keeps its cost if a neighbour still offers
+ * it, otherwise it is lost, and the lost tiles start again from their
+ * neighbours that kept theirs.
+ *
+ * A known cost is read without locking; spreading and catching up take the
+ * lock of the field, never a lock of the battlefield.
+ */
+public class FlowField {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    // cost of a straight and of a diagonal step
+    public static final int STRAIGHT = 10;
+    public static final int DIAGONAL = 14;
+
+    // the four straight steps first, then the four diagonal ones
+    private static final int[] DX = { 1, -1, 0, 0, 1, 1, -1, -1 };
+    private static final int[] DY = { 0, 0, 1, -1, 1, -1, 1, -1 };
+    // a chunk of costs is 16 by 16 tiles
+    private static final int CHUNK_SHIFT = 4;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final int columns;
+    private final int rows;
+    private final int destination;
+    private final int chunkColumns;
+    private final StampedLock lock = new StampedLock();
+
+    // guarded by the lock, read optimistically
+    private final int[][] chunks;
+    private Battlefield.Terrain terrain;
+    // cost of the cheapest tile still to visit, every cheaper tile is known
+    private long horizon;
+
+    // guarded by the lock
+    private final Heap frontier = new Heap();
+    private final Heap updates = new Heap();
+    private int[] lost = new int[64];
+
+    /**
+     * Starts the field of a destination on the current terrain of the battlefield.
+     *
+     * @param destination Tile the units walk to, it has to be free
+     */
+    public FlowField(Battlefield battlefield, int destination) {
+        this(battlefield.getTerrain(), destination);
+    }
+
+    /**
+     * @param destination Tile the units walk to, it has to be free on the terrain
+     */
+    FlowField(Battlefield.Terrain terrain, int destination) {
+        this.terrain = terrain;
+        this.columns = terrain.getColumns();
+        this.rows = terrain.getRows();
+        this.destination = destination;
+        this.chunkColumns = (columns + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunks = new int[chunkColumns * ((rows + CHUNK_MASK) >> CHUNK_SHIFT)][];
+        set(destination, 0);
+        frontier.push(0, destination);
+        horizon = 0;
+    }
+
+    public int getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return Cost of the walk from the tile to the destination on the terrain
+     *         the field was started on or caught up with, {@value #UNREACHABLE} if there is no way
+     */
+    public int cost(int tile) {
+        return cost(tile, null);
+    }
+
+    /**
+     * @param current The terrain to catch up with first, null to keep the terrain of the field
+     * @return Cost of the walk from the tile to the destination, {@value #UNREACHABLE} if there is no way
+     */
+    int cost(int tile, Battlefield.Terrain current) {
+        long stamp = lock.tryOptimisticRead();
+        if (current == null || terrain.getVersion() >= current.getVersion()) {
+            int c = get(tile);
+            long known = horizon;
+            if (lock.validate(stamp) && c < known) {
+                return c;
+            }
+        }
+        stamp = lock.writeLock();
+        try {
+            if (current != null && terrain.getVersion() < current.getVersion()) {
+                catchUp(current);
+            }
+            // a tile is known once every tile still to visit costs more
+            while (frontier.size > 0 && frontier.peekCost() <= get(tile)) {
+                visit();
+            }
+            horizon = frontier.size > 0 ? frontier.peekCost() : Long.MAX_VALUE;
+            return get(tile);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Lowers the cost of the neighbours of the cheapest tile still to visit.
+     */
+    private void visit() {
+        long entry = frontier.pop();
+        int c = (int) (entry >>> 32);
+        int tile = (int) entry;
+        int column = tile % columns;
+        int row = tile / columns;
+        if (get(column, row) != c) {
+            return;
+        }
+        for (int d = 0; d < DX.length; d++) {
+            if (canStep(column, row, d)) {
+                int through = c + step(d);
+                if (through < get(column + DX[d], row + DY[d])) {
+                    set(column + DX[d], row + DY[d], through);
+                    frontier.push(through, (row + DY[d]) * columns + column + DX[d]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the field with the tiles blocked between its terrain and a newer
+     * one. The destination must still be free.
+     */
+    private void catchUp(Battlefield.Terrain newer) {
+        int from = terrain.getVersion();
+        terrain = newer;
+        // the blocked tiles lost their cost, the tiles around them may have lost a step of their way
+        for (int i = from; i < newer.getVersion(); i++) {
+            int tile = newer.getBlocked(i);
+            if (get(tile) != UNREACHABLE) {
+                updates.push(get(tile), tile);
+            }
+            for (int d = 0; d < DX.length; d++) {
+                int neighbour = neighbour(tile % columns, tile / columns, d);
+                if (neighbour >= 0 && get(neighbour) != UNREACHABLE) {
+                    updates.push(get(neighbour), neighbour);
+                }
+            }
+        }
+        int lostCount = 0;
+        while (updates.size > 0) {
+            long entry = updates.pop();
+            int c = (int) (entry >>> 32);
+            int t = (int) entry;
+            // lost already, or visited twice
+            if (get(t) != c || supported(t)) {
+                continue;
+            }
+            set(t, UNREACHABLE);
+            if (lostCount == lost.length) {
+                lost = Arrays.copyOf(lost, lostCount * 2);
+            }
+            lost[lostCount++] = t;
+            // the tiles that may have been walking through this one
+            for (int d = 0; d < DX.length; d++) {
+                int neighbour = neighbour(t % columns, t / columns, d);
+                if (neighbour >= 0 && get(neighbour) != UNREACHABLE && get(neighbour) == c + step(d)) {
+                    updates.push(get(neighbour), neighbour);
+                }
+            }
+        }
+        // the lost tiles start again from the best neighbour that kept its cost
+        for (int i = 0; i < lostCount; i++) {
+            int t = lost[i];
+            if (terrain.isBlocked(t)) {
+                continue;
+            }
+            int best = UNREACHABLE;
+            for (int d = 0; d < DX.length; d++) {
+                int neighbour = neighbour(t % columns, t / columns, d);
+                if (neighbour >= 0 && get(neighbour) != UNREACHABLE && canStep(t, d)) {
+                    best = Math.min(best, get(neighbour) + step(d));
+                }
+            }
+            if (best != UNREACHABLE) {
+                set(t, best);
+                frontier.push(best, t);
+            }
+        }
+    }
+
+    /**
+     * @return true if a neighbour of the tile still offers its cost
+     */
+    private boolean supported(int tile) {
+        if (tile == destination) {
+            return true;
+        }
+        for (int d = 0; d < DX.length; d++) {
+            int neighbour = neighbour(tile % columns, tile / columns, d);
+            if (neighbour >= 0 && get(neighbour) != UNREACHABLE
+                    && get(neighbour) + step(d) == get(tile) && canStep(tile, d)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Steps are the same both ways, so this also tells if the neighbour can step to the tile.
+     *
+     * @return true if a unit can step from the tile in the direction
+     */
+    private boolean canStep(int tile, int d) {
+        return canStep(tile % columns, tile / columns, d);
+    }
+
+    private boolean canStep(int column, int row, int d) {
+        int tile = row * columns + column;
+        int neighbour = neighbour(column, row, d);
+        if (neighbour < 0 || terrain.isBlocked(neighbour) || terrain.isBlocked(tile)) {
+            return false;
+        }
+        // no cutting corners
+        return DX[d] == 0 || DY[d] == 0
+                || !terrain.isBlocked(row * columns + column + DX[d])
+                && !terrain.isBlocked((row + DY[d]) * columns + column);
+    }
+
+    /**
+     * @return The tile in the direction, -1 off the battlefield
+     */
+    private int neighbour(int column, int row, int d) {
+        int c = column + DX[d];
+        int r = row + DY[d];
+        return c < 0 || r < 0 || c >= columns || r >= rows ? -1 : r * columns + c;
+    }
+
+    private static int step(int d) {
+        return d < 4 ? STRAIGHT : DIAGONAL;
+    }
+
+    private int get(int tile) {
+        return get(tile % columns, tile / columns);
+    }
+
+    private int get(int column, int row) {
+        int[] chunk = chunks[(row >> CHUNK_SHIFT) * chunkColumns + (column >> CHUNK_SHIFT)];
+        return chunk == null ? UNREACHABLE : chunk[(row & CHUNK_MASK) << CHUNK_SHIFT | column & CHUNK_MASK];
+    }
+
+    private void set(int tile, int c) {
+        set(tile % columns, tile / columns, c);
+    }
+
+    private void set(int column, int row, int c) {
+        int index = (row >> CHUNK_SHIFT) * chunkColumns + (column >> CHUNK_SHIFT);
+        int[] chunk = chunks[index];
+        if (chunk == null) {
+            chunk = new int[1 << 2 * CHUNK_SHIFT];
+            Arrays.fill(chunk, UNREACHABLE);
+            chunks[index] = chunk;
+        }
+        chunk[(row & CHUNK_MASK) << CHUNK_SHIFT | column & CHUNK_MASK] = c;
+    }
+
+    /**
+     * Tiles waiting to be visited, by cost then tile.
+     */
+    private static final class Heap {
+
+        private long[] entries = new long[64];
+        private int size;
+
+        long peekCost() {
+            return entries[0] >>> 32;
+        }
+
+        void push(int c, int tile) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            long entry = (long) c << 32 | tile;
+            int i = size++;
+            while (i > 0 && entries[(i - 1) / 2] > entry) {
+                entries[i] = entries[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            entries[i] = entry;
+        }
+
+        long pop() {
+            long top = entries[0];
+            long last = entries[--size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && entries[child + 1] < entries[child]) {
+                    child++;
+                }
+                if (entries[child] >= last) {
+                    break;
+                }
+                entries[i] = entries[child];
+                i = child;
+            }
+            entries[i] = last;
+            return top;
+        }
+
+    }
+
+}
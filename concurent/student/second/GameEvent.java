@@ -0,0 +1,105 @@
+package concurent.student.second;
+
+import java.util.Locale;
+
+/**
+ * Something that happened in a match and is worth reporting.
+ *
+ * An event is logged with the name of the base, the unit type and a number
+ * it is about; the message is only put together when it is printed.
+ */
+public enum GameEvent {
+
+    PEASANT_MINING(GameLog.Level.DEBUG) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return "Peasant starting mining";
+        }
+    },
+    PEASANT_CUTTING_WOOD(GameLog.Level.DEBUG) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return "Peasant starting cutting wood";
+        }
+    },
+    BUILDING_STARTED(GameLog.Level.DEBUG) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " is creating " + type.toString().toLowerCase(Locale.ROOT);
+        }
+    },
+    UNIT_TRAINED(GameLog.Level.DEBUG) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " created a " + type.toString().toLowerCase(Locale.ROOT);
+        }
+    },
+    UNIT_DIED(GameLog.Level.DEBUG) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " has lost a " + type;
+        }
+    },
+    PREPARATION_FINISHED(GameLog.Level.INFO) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " finished creating a base";
+        }
+    },
+    UNIT_COUNT(GameLog.Level.INFO) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + (type == UnitType.FOOTMAN ? " footmen: " : " peasants: ") + value;
+        }
+    },
+    BUILDING_OWNED(GameLog.Level.INFO) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " has a  " + type;
+        }
+    },
+    ARMY_READY(GameLog.Level.INFO) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " is ready for war";
+        }
+    },
+    WAR_STARTED(GameLog.Level.INFO) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return "Both bases finished their war preparation and assembled their armies";
+        }
+    },
+    WAR_WON(GameLog.Level.INFO) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " has won the fight";
+        }
+    },
+    WAR_LOST(GameLog.Level.INFO) {
+        @Override
+        String describe(String base, UnitType type, int value) {
+            return base + " has lost the fight";
+        }
+    };
+
+    private final GameLog.Level level;
+
+    GameEvent(GameLog.Level level) {
+        this.level = level;
+    }
+
+    public GameLog.Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Puts together the message of the event.
+     *
+     * @param base  Name of the base the event happened in, null if none
+     * @param type  The unit type the event is about, null if none
+     * @param value The number the event is about
+     */
+    abstract String describe(String base, UnitType type, int value);
+
+}
@@ -0,0 +1,227 @@
+package concurent.student.second;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Where the bases and units report what they are doing.
+ *
+ * Logging an event only copies its fields into a slot of a ring buffer,
+ * the messages are put together and printed by a single background thread,
+ * so the units never wait for each other on the output stream.
+ * Events below the level of the log are dropped before they reach the buffer,
+ * and nothing is allocated for them. When the buffer is full, the units wait
+ * for the printer instead of losing events.
+ */
+public class GameLog {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    // how long the printer sleeps when there is nothing to print, if nobody wakes it
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static GameLog console;
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        OFF
+    }
+
+    private final PrintStream out;
+    private final Level level;
+    private final Slot[] slots;
+    private final int mask;
+    // next position to write, claimed by the producers
+    private final AtomicLong tail = new AtomicLong();
+    // next position to print, only moved by the printer
+    private volatile long head;
+    private volatile boolean printerIdle;
+    private volatile boolean closed;
+    private final Thread printer;
+
+    private GameLog(PrintStream out, Level level, int capacity) {
+        this.out = out;
+        this.level = level;
+        if (level == Level.OFF) {
+            this.slots = null;
+            this.mask = 0;
+            this.printer = null;
+            return;
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        this.mask = size - 1;
+        this.printer = new Thread(this::print, "game-log");
+        this.printer.setDaemon(true);
+        this.printer.start();
+    }
+
+    /**
+     * The log printing to the standard output, shared by every match.
+     * The level is read from the "warcraft.log.level" property, every event is printed by default.
+     * Whatever is left in the buffer is printed when the JVM exits.
+     */
+    public static synchronized GameLog console() {
+        if (console == null) {
+            console = create(System.out, Level.valueOf(System.getProperty("warcraft.log.level", "DEBUG")));
+            GameLog log = console;
+            Runtime.getRuntime().addShutdownHook(new Thread(log::flush));
+        }
+        return console;
+    }
+
+    /**
+     * @return A log that drops every event
+     */
+    public static GameLog silent() {
+        return new GameLog(null, Level.OFF, 0);
+    }
+
+    /**
+     * Creates a log printing to the given stream.
+     * It has its own printer thread, which runs until the log is closed.
+     *
+     * @param out   Where to print
+     * @param level The least important level that is printed
+     */
+    public static GameLog create(PrintStream out, Level level) {
+        return new GameLog(out, level, DEFAULT_CAPACITY);
+    }
+
+    public boolean isEnabled() {
+        return level != Level.OFF;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0 && this.level != Level.OFF;
+    }
+
+    public void log(GameEvent event, String base) {
+        log(event, base, null, 0);
+    }
+
+    public void log(GameEvent event, String base, UnitType type) {
+        log(event, base, type, 0);
+    }
+
+    /**
+     * Logs an event, if its level is enabled.
+     *
+     * @param event What happened
+     * @param base  Name of the base it happened in, null if none
+     * @param type  The unit type it is about, null if none
+     * @param value The number it is about
+     */
+    public void log(GameEvent event, String base, UnitType type, int value) {
+        if (!isEnabled(event.getLevel()) || closed) {
+            return;
+        }
+        long position = claim();
+        if (position < 0) {
+            return;
+        }
+        Slot slot = slots[(int) position & mask];
+        slot.event = event;
+        slot.base = base;
+        slot.type = type;
+        slot.value = value;
+        slot.sequence = position + 1;
+        if (printerIdle) {
+            LockSupport.unpark(printer);
+        }
+    }
+
+    /**
+     * Claims the next free slot of the buffer, waits if the buffer is full.
+     *
+     * @return Position of the slot, or -1 if the log got closed while waiting
+     */
+    private long claim() {
+        while (true) {
+            long position = tail.get();
+            long sequence = slots[(int) position & mask].sequence;
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (sequence < position) {
+                // the printer has not freed the slot yet
+                if (closed) {
+                    return -1;
+                }
+                LockSupport.unpark(printer);
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void print() {
+        long position = head;
+        while (true) {
+            Slot slot = slots[(int) position & mask];
+            if (slot.sequence == position + 1) {
+                String message = slot.event.describe(slot.base, slot.type, slot.value);
+                slot.base = null;
+                slot.sequence = position + slots.length;
+                head = ++position;
+                out.println(message);
+            } else if (closed) {
+                return;
+            } else {
+                out.flush();
+                printerIdle = true;
+                if (slot.sequence != position + 1) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                printerIdle = false;
+            }
+        }
+    }
+
+    /**
+     * Waits until every event logged so far is printed.
+     */
+    public void flush() {
+        if (printer == null) {
+            return;
+        }
+        long target = tail.get();
+        while (head < target && printer.isAlive()) {
+            LockSupport.unpark(printer);
+            LockSupport.parkNanos(100_000);
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints the events logged so far and stops the printer thread.
+     * Events logged after closing are dropped.
+     */
+    public void close() {
+        if (printer == null) {
+            return;
+        }
+        flush();
+        closed = true;
+        LockSupport.unpark(printer);
+    }
+
+    private static final class Slot {
+
+        // position + 1 when the slot holds the event of that position,
+        // position when the slot is free to be written at that position
+        volatile long sequence;
+        GameEvent event;
+        String base;
+        UnitType type;
+        int value;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package concurent.student.second;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Binary journal of every change of the state of a match, for replaying
+ * and analysing a run afterwards. Read it back with a {@link JournalReader}.
+ *
+ * The journal is a memory-mapped file of fixed size records. A writer claims
+ * the next record with a single atomic increment and fills it in place, so
+ * unit threads never wait for each other or for the disk. The file is mapped
+ * in big chunks, only mapping a new chunk takes a lock. Closing waits for the
+ * writers still filling in a record, so every counted record is complete.
+ *
+ * Layout: a header of {@value #HEADER_SIZE} bytes (magic, version, number of
+ * records, names of the bases), followed by the records of {@value #RECORD_SIZE} bytes:
+ * time (long), kind (byte), base (byte), unit type (byte, -1 if none),
+ * one unused byte, unit id (int) and value (long).
+ */
+public class Journal implements AutoCloseable {
+
+    static final int MAGIC = 0x57434A31;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4096;
+    static final int RECORD_SIZE = 24;
+    static final int MAX_BASES = 127;
+    static final int NAME_SIZE = 32;
+    // the header holds magic, version and the number of records before the names
+    static final int NAMES_OFFSET = 16;
+
+    private static final int RECORDS_PER_CHUNK_SHIFT = 19;
+    private static final long CHUNK_SIZE = (long) RECORD_SIZE << RECORDS_PER_CHUNK_SHIFT;
+    private static final int MAX_CHUNKS = 4096;
+
+    private static final Journal DISABLED = new Journal();
+
+    public enum Kind {
+        GOLD,
+        WOOD,
+        // change of the food in use
+        CAPACITY,
+        // change of the food limit
+        CAPACITY_LIMIT,
+        // the unit is the building, the value is the peasant who built it
+        BUILDING_COMPLETED,
+        UNIT_TRAINED,
+        DAMAGE,
+        DEATH
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final AtomicReferenceArray<MappedByteBuffer> chunks;
+    private final AtomicLong nextRecord = new AtomicLong();
+    private final AtomicInteger bases = new AtomicInteger();
+    // writers between checking that the journal is open and filling in their record
+    private final AtomicInteger writing = new AtomicInteger();
+    private volatile boolean closed;
+
+    private Journal() {
+        this.channel = null;
+        this.header = null;
+        this.chunks = null;
+    }
+
+    private Journal(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        this.chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+    }
+
+    /**
+     * Creates a journal writing to the given file, an existing file is overwritten.
+     */
+    public static Journal open(Path file) {
+        try {
+            return new Journal(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the journal " + file, e);
+        }
+    }
+
+    /**
+     * @return A journal that does not record anything
+     */
+    public static Journal disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return channel != null;
+    }
+
+    /**
+     * Registers a base, its events are recorded with the returned id.
+     *
+     * @param name Name of the base
+     * @return Id of the base in the journal
+     */
+    public int registerBase(String name) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        int id = bases.getAndIncrement();
+        if (id >= MAX_BASES) {
+            throw new IllegalStateException("A journal can not have more than " + MAX_BASES + " bases");
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, NAME_SIZE - 1);
+        synchronized (header) {
+            int offset = NAMES_OFFSET + id * NAME_SIZE;
+            header.put(offset, (byte) length);
+            header.put(offset + 1, bytes, 0, length);
+        }
+        return id;
+    }
+
+    /**
+     * Records an event. Does not block, only takes a lock when the journal grows into a new chunk.
+     *
+     * @param time  Time of the event on the clock of the match
+     * @param kind  What happened
+     * @param base  Id of the base, from {@link #registerBase(String)}
+     * @param type  Type of the unit it happened to, null if none
+     * @param unit  Id of the unit it happened to, 0 if none
+     * @param value Amount of the change
+     */
+    public void record(long time, Kind kind, int base, UnitType type, int unit, long value) {
+        if (!isEnabled()) {
+            return;
+        }
+        // counted before checking, so closing either sees the writer or is seen by it
+        writing.incrementAndGet();
+        try {
+            if (closed) {
+                return;
+            }
+            long index = nextRecord.getAndIncrement();
+            int chunk = (int) (index >>> RECORDS_PER_CHUNK_SHIFT);
+            if (chunk >= MAX_CHUNKS) {
+                throw new IllegalStateException("The journal is full");
+            }
+            ByteBuffer buffer = chunk(chunk);
+            int offset = (int) (index & ((1 << RECORDS_PER_CHUNK_SHIFT) - 1)) * RECORD_SIZE;
+            buffer.putLong(offset, time);
+            buffer.put(offset + 9, (byte) base);
+            buffer.put(offset + 10, (byte) (type == null ? -1 : type.ordinal()));
+            buffer.putInt(offset + 12, unit);
+            buffer.putLong(offset + 16, value);
+            // the kind is never 0, a record with kind 0 was not written (yet)
+            buffer.put(offset + 8, (byte) (kind.ordinal() + 1));
+        } finally {
+            writing.decrementAndGet();
+        }
+    }
+
+    private ByteBuffer chunk(int chunk) {
+        MappedByteBuffer buffer = chunks.get(chunk);
+        if (buffer != null) {
+            return buffer;
+        }
+        synchronized (chunks) {
+            buffer = chunks.get(chunk);
+            if (buffer == null) {
+                try {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + chunk * CHUNK_SIZE, CHUNK_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not grow the journal", e);
+                }
+                chunks.set(chunk, buffer);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * @return Number of records claimed so far
+     */
+    public long getRecords() {
+        return nextRecord.get();
+    }
+
+    /**
+     * Waits for the records being written, then writes the number of records
+     * into the header and forces everything to the disk. Events recorded after
+     * closing are dropped. An interrupt of the calling thread does not stop
+     * closing, it is kept for the caller.
+     */
+    @Override
+    public synchronized void close() {
+        if (!isEnabled() || closed) {
+            return;
+        }
+        closed = true;
+        while (writing.get() > 0) {
+            Thread.onSpinWait();
+        }
+        // a writer that found the journal full claimed a record it did not write
+        long records = Math.min(nextRecord.get(), (long) MAX_CHUNKS << RECORDS_PER_CHUNK_SHIFT);
+        // the channel would close itself when an interrupted thread uses it
+        boolean interrupted = Thread.interrupted();
+        try {
+            flush(records);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Forces the records and the header to the disk and cuts the file after the last record.
+     */
+    private void flush(long records) {
+        synchronized (chunks) {
+            for (int i = 0; i < MAX_CHUNKS && chunks.get(i) != null; i++) {
+                chunks.get(i).force();
+            }
+        }
+        synchronized (header) {
+            header.putLong(8, records);
+            header.force();
+        }
+        try {
+            // the last chunk is only partly used, the mapping stays valid until it is collected
+            channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close the journal", e);
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package concurent.student.second;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the records of a {@link Journal} back, in the order they were claimed.
+ *
+ * The reader is a cursor: {@link #next()} moves to the next record, and the
+ * getters return the fields of the current one, so reading a long journal
+ * does not create an object per record.
+ */
+public class JournalReader implements AutoCloseable {
+
+    private static final UnitType[] UNIT_TYPES = UnitType.values();
+    private static final Journal.Kind[] KINDS = Journal.Kind.values();
+
+    private final FileChannel channel;
+    private final String[] bases;
+    private final long records;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(Journal.RECORD_SIZE * 4096);
+    private long read;
+
+    private long time;
+    private Journal.Kind kind;
+    private int base;
+    private UnitType unitType;
+    private int unit;
+    private long value;
+
+    public JournalReader(Path file) {
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(Journal.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // reading the whole header
+            }
+            header.flip();
+            if (header.remaining() < Journal.HEADER_SIZE || header.getInt(0) != Journal.MAGIC) {
+                throw new IllegalArgumentException(file + " is not a journal");
+            }
+            if (header.getInt(4) != Journal.VERSION) {
+                throw new IllegalArgumentException("Unknown journal version " + header.getInt(4));
+            }
+            long written = header.getLong(8);
+            long inFile = (channel.size() - Journal.HEADER_SIZE) / Journal.RECORD_SIZE;
+            // a journal that was not closed does not know its size, it ends at the first empty record
+            this.records = written > 0 ? Math.min(written, inFile) : inFile;
+            this.bases = readBaseNames(header);
+            buffer.limit(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the journal " + file, e);
+        }
+    }
+
+    private static String[] readBaseNames(ByteBuffer header) {
+        String[] names = new String[Journal.MAX_BASES];
+        for (int i = 0; i < Journal.MAX_BASES; i++) {
+            int offset = Journal.NAMES_OFFSET + i * Journal.NAME_SIZE;
+            int length = header.get(offset);
+            byte[] bytes = new byte[length];
+            header.get(offset + 1, bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return names;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false if there are no more records
+     */
+    public boolean next() {
+        if (read >= records) {
+            return false;
+        }
+        if (!buffer.hasRemaining()) {
+            fill();
+        }
+        time = buffer.getLong();
+        int kindByte = buffer.get();
+        base = buffer.get();
+        int type = buffer.get();
+        buffer.get();
+        unit = buffer.getInt();
+        value = buffer.getLong();
+        if (kindByte <= 0) {
+            read = records;
+            return false;
+        }
+        kind = KINDS[kindByte - 1];
+        unitType = type < 0 ? null : UNIT_TYPES[type];
+        read++;
+        return true;
+    }
+
+    private void fill() {
+        buffer.clear();
+        long remaining = (records - read) * Journal.RECORD_SIZE;
+        if (remaining < buffer.capacity()) {
+            buffer.limit((int) remaining);
+        }
+        try {
+            long position = Journal.HEADER_SIZE + read * Journal.RECORD_SIZE;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("The journal ended unexpectedly");
+                }
+                position += n;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public Journal.Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Name of the base of the current record
+     */
+    public String getBase() {
+        return bases[base];
+    }
+
+    /**
+     * @return Unit type of the current record, null if none
+     */
+    public UnitType getUnitType() {
+        return unitType;
+    }
+
+    public int getUnit() {
+        return unit;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Prints a journal as text, one record per line.
+     *
+     * @param args Path of the journal
+     */
+    public static void main(String[] args) {
+        try (JournalReader reader = new JournalReader(Paths.get(args[0]))) {
+            StringBuilder line = new StringBuilder();
+            while (reader.next()) {
+                line.setLength(0);
+                line.append(reader.getTime()).append(' ').append(reader.getBase()).append(' ')
+                        .append(reader.getKind());
+                if (reader.getUnitType() != null) {
+                    line.append(' ').append(reader.getUnitType()).append('#').append(reader.getUnit());
+                }
+                line.append(' ').append(reader.getValue());
+                System.out.println(line);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package concurent.student.second;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * A match between the Horde and the Allience, or between any number of factions:
+ * every base prepares for war at the same time, then their armies fight.
+ * With more than two factions the war is a free-for-all.
+ *
+ * A match can be given a time budget on its clock, a match that runs out of
+ * it is cancelled and ends with an unfinished result. Once a match is over,
+ * its world is cancelled, so no unit of it is left waiting.
+ */
+public class Match {
+
+    private final World world;
+    private final String[] factions;
+    private Path checkpointFile;
+    private int warThreads = 1;
+    private long timeBudget;
+    private long started;
+    private long prepared = -1;
+
+    public Match(World world) {
+        this(world, "Horde", "Allience");
+    }
+
+    /**
+     * @param world    The world of the match
+     * @param factions Names of the bases, at least two
+     */
+    public Match(World world, String... factions) {
+        if (factions.length < 2) {
+            throw new IllegalArgumentException("a match needs at least two factions");
+        }
+        this.world = world;
+        this.factions = factions.clone();
+        world.layOutBattlefield(factions.length);
+    }
+
+    /**
+     * Saves a {@link Checkpoint} of the match into the given file,
+     * once every army is assembled.
+     *
+     * @param file Where to save the checkpoint, null to not save any
+     */
+    public void setCheckpointFile(Path file) {
+        this.checkpointFile = file;
+    }
+
+    /**
+     * @param threads Number of threads the war is resolved on, does not change the outcome
+     */
+    public void setWarThreads(int threads) {
+        this.warThreads = threads;
+    }
+
+    /**
+     * @param millis Time on the clock of the match it may take at most, 0 for no limit
+     */
+    public void setTimeBudget(long millis) {
+        this.timeBudget = millis;
+    }
+
+    /**
+     * Plays the match on the calling thread.
+     *
+     * @return The outcome of the match
+     */
+    public MatchResult play() {
+        return play(() -> {
+            // a new base trains its first peasants, every base does it at the same time
+            Base[] bases = new Base[factions.length];
+            Task[] founding = new Task[factions.length];
+            for (int i = 0; i < bases.length; i++) {
+                int index = i;
+                founding[i] = world.getClock().start(() -> bases[index] = new Base(factions[index], world));
+            }
+            for (Task task : founding) {
+                task.join();
+            }
+            return bases;
+        });
+    }
+
+    /**
+     * Continues a match from a checkpoint of it, on the calling thread.
+     * If the armies were already assembled, the match goes on with the war,
+     * otherwise every base carries on with its preparation.
+     *
+     * @param checkpoint Checkpoint of a match
+     * @return The outcome of the match
+     */
+    public MatchResult resume(Checkpoint checkpoint) {
+        return play(() -> checkpoint.restore(world));
+    }
+
+    private MatchResult play(Supplier<Base[]> bases) {
+        SimulationClock clock = world.getClock();
+        Cancellation cancellation = world.getCancellation();
+        MatchResult[] result = new MatchResult[1];
+        try {
+            clock.run(() -> {
+                started = clock.currentTimeMillis();
+                if (timeBudget > 0) {
+                    cancellation.setDeadline(started + timeBudget);
+                }
+                result[0] = fight(started, bases.get());
+            });
+        } catch (CancellationException e) {
+            if (!cancellation.isCancelled()) {
+                throw e;
+            }
+            long duration = clock.currentTimeMillis() - started;
+            return new MatchResult(null, prepared < 0 ? duration : prepared - started, duration, 0, false);
+        } finally {
+            cancellation.cancel("the match is over");
+        }
+        return result[0];
+    }
+
+    private MatchResult fight(long start, Base[] bases) {
+        SimulationClock clock = world.getClock();
+        boolean assembled = true;
+        for (Base base : bases) {
+            assembled &= !base.getArmy().isEmpty();
+        }
+        if (!assembled) {
+            // every base prepares on its own task, at the same time
+            CountDownLatch latch = new CountDownLatch(bases.length);
+            for (Base base : bases) {
+                clock.start(() -> {
+                    base.startPreparation();
+                    base.assembleArmy(latch);
+                });
+            }
+            clock.await(latch);
+            if (checkpointFile != null) {
+                Checkpoint.take(bases).write(checkpointFile);
+            }
+        }
+        prepared = clock.currentTimeMillis();
+
+        world.getLog().log(GameEvent.WAR_STARTED, null);
+        WarResult war = bases[0].goToWar(Arrays.asList(bases).subList(1, bases.length), warThreads);
+        return new MatchResult(war.isDraw() ? null : war.getWinner().getName(), prepared - start,
+                war.getEndTime() - start, war.getSurvivors());
+    }
+
+}
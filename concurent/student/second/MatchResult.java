@@ -0,0 +1,66 @@
+package concurent.student.second;
+
+/**
+ * Outcome of a match.
+ */
+public class MatchResult {
+
+    private final String winner;
+    private final long preparationTime;
+    private final long duration;
+    private final int survivors;
+    private final boolean finished;
+
+    public MatchResult(String winner, long preparationTime, long duration, int survivors) {
+        this(winner, preparationTime, duration, survivors, true);
+    }
+
+    /**
+     * @param finished false if the match was cancelled before the war was decided
+     */
+    public MatchResult(String winner, long preparationTime, long duration, int survivors, boolean finished) {
+        this.winner = winner;
+        this.preparationTime = preparationTime;
+        this.duration = duration;
+        this.survivors = survivors;
+        this.finished = finished;
+    }
+
+    /**
+     * @return Name of the winning base, null if the armies destroyed each other
+     *         or the match did not finish
+     */
+    public String getWinner() {
+        return winner;
+    }
+
+    /**
+     * @return Milliseconds of simulation time until both armies were assembled,
+     *         the whole duration if the match was cancelled before that
+     */
+    public long getPreparationTime() {
+        return preparationTime;
+    }
+
+    /**
+     * @return Milliseconds of simulation time the whole match took
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return Number of personnel left in the winning army
+     */
+    public int getSurvivors() {
+        return survivors;
+    }
+
+    /**
+     * @return false if the match was cancelled, or ran out of its time budget, before the war was decided
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+}
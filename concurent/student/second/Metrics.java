@@ -0,0 +1,276 @@
+package concurent.student.second;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counters and histograms of what is going on in a match, by name.
+ *
+ * Recording only adds to striped counters, so it is cheap enough to stay on
+ * during big batches. The values are read by polling {@link #snapshot()},
+ * or through JMX once the registry is registered as an MBean.
+ * Times are measured on the clock of the match, in milliseconds.
+ */
+public class Metrics {
+
+    private final SimulationClock clock;
+    private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+    public Metrics(SimulationClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return The rate of the given name, started now if it is new
+     */
+    public Rate rate(String name) {
+        return (Rate) metrics.computeIfAbsent(name, n -> {
+            Rate rate = new Rate(clock);
+            rate.start();
+            return rate;
+        });
+    }
+
+    public Histogram histogram(String name) {
+        return (Histogram) metrics.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a value that is computed whenever it is read.
+     */
+    public void gauge(String name, DoubleSupplier value) {
+        metrics.put(name, value);
+    }
+
+    /**
+     * @return The current value of every metric, histograms and rates are
+     *         broken down into several values with the name as prefix
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            if (metric instanceof Rate) {
+                Rate rate = (Rate) metric;
+                values.put(name + ".total", rate.getTotal());
+                values.put(name + ".perSecond", rate.perSecond());
+            } else if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                values.put(name + ".count", histogram.getCount());
+                values.put(name + ".mean", histogram.getMean());
+                values.put(name + ".p50", histogram.percentile(0.5));
+                values.put(name + ".p99", histogram.percentile(0.99));
+                values.put(name + ".max", histogram.getMax());
+            } else {
+                values.put(name, ((DoubleSupplier) metric).getAsDouble());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Makes the metrics readable through JMX, every value of the snapshot is an attribute.
+     *
+     * @param name Object name of the MBean, like "warcraft:type=Metrics,match=1"
+     * @return The object name the registry was registered under
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics as " + name, e);
+        }
+    }
+
+    public void unregisterMBean(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister the metrics " + name, e);
+        }
+    }
+
+    /**
+     * A total that keeps growing, and how fast it grew while it was measured.
+     */
+    public static final class Rate {
+
+        private final SimulationClock clock;
+        private final LongAdder total = new LongAdder();
+        private volatile long started = -1;
+        private volatile long stopped = -1;
+
+        private Rate(SimulationClock clock) {
+            this.clock = clock;
+        }
+
+        public void add(long amount) {
+            total.add(amount);
+        }
+
+        /**
+         * Starts measuring the rate from now on, the total is kept.
+         */
+        public void start() {
+            stopped = -1;
+            started = clock.currentTimeMillis();
+        }
+
+        public void stop() {
+            stopped = clock.currentTimeMillis();
+        }
+
+        public long getTotal() {
+            return total.sum();
+        }
+
+        /**
+         * @return The total divided by the seconds measured so far
+         */
+        public double perSecond() {
+            long start = started;
+            long end = stopped >= 0 ? stopped : clock.currentTimeMillis();
+            return start < 0 || end <= start ? 0 : total.sum() * 1000.0 / (end - start);
+        }
+    }
+
+    /**
+     * Distribution of recorded values, in buckets of powers of two.
+     */
+    public static final class Histogram {
+
+        private final LongAdder[] buckets = new LongAdder[65];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param value A non-negative value, negative values are recorded as 0
+         */
+        public void record(long value) {
+            long v = Math.max(0, value);
+            buckets[64 - Long.numberOfLeadingZeros(v)].increment();
+            count.increment();
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param quantile Between 0 and 1
+         * @return Upper bound of the bucket holding the quantile, at most the maximum
+         */
+        public long percentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    long upper = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+
+    private final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            // the bean has no operations
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> values = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> entry : values.entrySet()) {
+                attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of a match", attributes, null,
+                    new MBeanOperationInfo[0], null);
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package concurent.student.second;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The flow fields of a {@link Battlefield}, one per destination tile.
+ *
+ * Every unit walking to the same tile uses the same field, so the way of a
+ * thousand soldiers to the front costs one search of the map, and a unit
+ * only looks up the cost of its own tile. A field is looked up without
+ * locking; it spreads under its own lock, so units walking to different
+ * places never wait for each other.
+ *
+ * Once there are more fields than the capacity, fields not used since the
+ * last sweep are evicted, a used one gets a second chance. A field is not
+ * thrown away when a building is placed, it catches up with the blocked tiles
+ * where the way changed; a field whose destination got built over is evicted
+ * instead.
+ */
+public class Pathfinder {
+
+    private final Battlefield battlefield;
+    private final Map<Integer, Entry> fields = new ConcurrentHashMap<>();
+    private final LongAdder computed = new LongAdder();
+    private volatile int capacity;
+
+    /**
+     * @param capacity Most fields kept at the same time
+     */
+    public Pathfinder(Battlefield battlefield, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.battlefield = battlefield;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param capacity Most fields kept at the same time, the capacity is never lowered
+     */
+    synchronized void ensureCapacity(int capacity) {
+        this.capacity = Math.max(this.capacity, capacity);
+    }
+
+    /**
+     * @param destination A free tile
+     * @return The field of the tile, started if it is not kept
+     */
+    public FlowField fieldTo(int destination) {
+        return fieldTo(destination, battlefield.getTerrain());
+    }
+
+    /**
+     * @param destination A free tile on the terrain
+     * @param terrain     The terrain a new field is started on
+     * @return The field of the tile, started if it is not kept
+     */
+    FlowField fieldTo(int destination, Battlefield.Terrain terrain) {
+        Entry entry = fields.get(destination);
+        if (entry == null) {
+            entry = fields.computeIfAbsent(destination, tile -> {
+                computed.increment();
+                return new Entry(new FlowField(terrain, tile));
+            });
+            if (fields.size() > capacity) {
+                evict();
+            }
+        } else if (!entry.used) {
+            entry.used = true;
+        }
+        return entry.field;
+    }
+
+    /**
+     * Sweeps the fields until they fit the capacity, clearing the mark of the used ones.
+     */
+    private synchronized void evict() {
+        while (fields.size() > capacity) {
+            Iterator<Entry> sweep = fields.values().iterator();
+            while (sweep.hasNext() && fields.size() > capacity) {
+                Entry entry = sweep.next();
+                if (entry.used) {
+                    entry.used = false;
+                } else {
+                    sweep.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the fields whose destination got blocked between two terrains,
+     * the others catch up when they are used next.
+     */
+    void blocked(Battlefield.Terrain last, Battlefield.Terrain terrain) {
+        for (int i = last.getVersion(); i < terrain.getVersion(); i++) {
+            fields.remove(terrain.getBlocked(i));
+        }
+    }
+
+    /**
+     * @return Number of fields kept
+     */
+    public int size() {
+        return fields.size();
+    }
+
+    /**
+     * @return Number of fields started, a field started again after its eviction counts again
+     */
+    public long getComputed() {
+        return computed.sum();
+    }
+
+    private static final class Entry {
+
+        private final FlowField field;
+        // used since the last sweep
+        private volatile boolean used = true;
+
+        Entry(FlowField field) {
+            this.field = field;
+        }
+
+    }
+
+}
@@ -1,14 +1,27 @@
 package concurent.student.second;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 public class Peasant extends Personnel {
 
     private static final int HARVEST_WAIT_TIME = 100;
     private static final int HARVEST_AMOUNT = 10;
+    // harvested before the load is taken to the town hall
+    private static final int CARRY_CAPACITY = 100;
 
-    private AtomicBoolean isHarvesting = new AtomicBoolean(false);
-    private AtomicBoolean isBuilding = new AtomicBoolean(false);
+    private enum State {
+        IDLE,
+        // claimed from the idle pool of the base, about to get work
+        ASSIGNED,
+        MINING,
+        CUTTING_WOOD,
+        BUILDING
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    // the building under construction, while building
+    private volatile UnitType building;
 
     private Peasant(Base owner) {
         super(220, owner, 5, 6, UnitType.PEASANT);
@@ -19,99 +32,180 @@ public class Peasant extends Personnel {
     }
 
     /**
-     * Starts gathering gold.
+     * Starts gathering gold at the mine of the base.
      */
     public void startMining(){
-        this.isHarvesting.set(true);
-        new Thread(() -> {
-            try {
-                while(isHarvesting.get()) {
-                    Thread.sleep(HARVEST_WAIT_TIME);
-                    this.getOwner().getResources().addGold(HARVEST_AMOUNT);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }).start();
-        System.out.println("Peasant starting mining");
+        this.state.set(State.MINING);
+        Battlefield battlefield = this.getOwner().getWorld().getBattlefield();
+        float mineX = battlefield.getMineX(this.getOwner().getStoreId());
+        float mineY = battlefield.getMineY(this.getOwner().getStoreId());
+        Resources resources = this.getOwner().getResources();
+        this.getOwner().getClock().start(() -> harvest(State.MINING, mineX, mineY, resources::addGold));
+        this.getOwner().getLog().log(GameEvent.PEASANT_MINING, this.getOwner().getName());
     }
 
     /**
-     * Starts gathering wood.
+     * Starts gathering wood in the forest of the base.
      */
     public void startCuttingWood(){
-        this.isHarvesting.set(true);
-        new Thread(() -> {
-            try {
-                while(isHarvesting.get()) {
-                    Thread.sleep(HARVEST_WAIT_TIME);
-                    this.getOwner().getResources().addWood(HARVEST_AMOUNT);
+        this.state.set(State.CUTTING_WOOD);
+        Battlefield battlefield = this.getOwner().getWorld().getBattlefield();
+        float forestX = battlefield.getForestX(this.getOwner().getStoreId());
+        float forestY = battlefield.getForestY(this.getOwner().getStoreId());
+        Resources resources = this.getOwner().getResources();
+        this.getOwner().getClock().start(() -> harvest(State.CUTTING_WOOD, forestX, forestY, resources::addWood));
+        this.getOwner().getLog().log(GameEvent.PEASANT_CUTTING_WOOD, this.getOwner().getName());
+    }
+
+    /**
+     * Walks to the site and harvests there until he carries a full load,
+     * then takes the load to the town hall and walks back, as long as the work lasts.
+     * A load not taken to the town hall yet is dropped when the work ends.
+     *
+     * @param work    The state of the work
+     * @param deliver Adds a load to the resources of the base
+     */
+    private void harvest(State work, float siteX, float siteY, IntConsumer deliver){
+        if(!walkTo(work, siteX, siteY)) {
+            return;
+        }
+        int load = 0;
+        while(this.state.get() == work) {
+            sleepForMsec(HARVEST_WAIT_TIME);
+            load += HARVEST_AMOUNT;
+            if(load == CARRY_CAPACITY) {
+                if(!walkTo(work, this.getOwner().getX(), this.getOwner().getY())) {
+                    return;
+                }
+                deliver.accept(load);
+                load = 0;
+                if(!walkTo(work, siteX, siteY)) {
+                    return;
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
             }
-        }).start();
-        System.out.println("Peasant starting cutting wood");
+        }
+    }
+
+    /**
+     * Walks to a place, for as long as the way there takes.
+     *
+     * @param work The state of the work the peasant walks for
+     * @return false if the work ended on the way, the peasant is then left where he started
+     */
+    private boolean walkTo(State work, float x, float y){
+        sleepForMsec(this.getOwner().getWorld().getBattlefield().travelTime(getX(), getY(), x, y));
+        if(this.state.get() != work) {
+            return false;
+        }
+        moveTo(x, y);
+        return true;
     }
 
     /**
      * Peasant should stop all harvesting once this is invoked
      */
     public void stopHarvesting(){
-        this.isHarvesting.set(false);
+        if (this.state.compareAndSet(State.MINING, State.IDLE)
+                || this.state.compareAndSet(State.CUTTING_WOOD, State.IDLE)) {
+            this.getOwner().releasePeasant(this);
+        }
     }
 
     /**
      * Tries to build a certain type of building.
      * Can only build if there are enough gold and wood for the building
      * to be built.
+     * A peasant claimed from the idle pool goes back to the pool
+     * if the building can not be built.
      *
      * @param buildingType Type of the building
      * @return true, if the building process has started
      *         false, if there are insufficient resources
      */
     public boolean tryBuilding(UnitType buildingType){
-        if(this.getOwner().getResources().canBuild(buildingType.goldCost,buildingType.woodCost)) {
-            Thread thread = new Thread(() -> {
-                startBuilding(buildingType);
-            });
-            thread.start();
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                System.out.println("Interrupt Occurred");
-                e.printStackTrace();
-            }
+        Resources.Reservation cost = this.getOwner().getResources().tryReserve(buildingType.goldCost,
+                buildingType.woodCost, 0);
+        if(cost != null) {
+            startBuilding(buildingType, cost);
             return true;
         }
+        unclaim();
         return false;
     }
 
     /**
      * Start building a certain type of building.
-     * Keep in mind that a peasant can only build one building at one time.
+     * Keep in mind that a peasant can only build one building at one time,
+     * if he is already building, the reserved cost is given back.
      *
      * @param buildingType Type of the building
+     * @param cost The reserved cost of the building
      */
-    private void startBuilding(UnitType buildingType){
-        if(!this.isBuilding.get()) {
-            this.isBuilding.set(true);
-            this.getOwner().getResources().removeCost(buildingType.goldCost, buildingType.woodCost);
+    void startBuilding(UnitType buildingType, Resources.Reservation cost){
+        if(this.state.compareAndSet(State.IDLE, State.BUILDING)
+                || this.state.compareAndSet(State.ASSIGNED, State.BUILDING)) {
+            this.building = buildingType;
+            long started = this.getOwner().getClock().currentTimeMillis();
             sleepForMsec(buildingType.buildTime);
-            this.getOwner().getBuildings().add(Building.createBuilding(buildingType, this.getOwner()));
+            cost.commit();
+            this.getOwner().recordProduction(buildingType,
+                    this.getOwner().getClock().currentTimeMillis() - started);
+            Building completed = Building.createBuilding(buildingType, this.getOwner());
+            // the value of the record is the peasant who built it
+            this.getOwner().journal(Journal.Kind.BUILDING_COMPLETED, buildingType, completed.getId(), this.getId());
+            this.getOwner().addBuilding(completed);
+            this.building = null;
+            this.state.set(State.IDLE);
+            this.getOwner().releasePeasant(this);
+        } else {
+            cost.rollback();
         }
-        this.isBuilding.set(false);
 
     }
 
     /**
      * Determines if a peasant is free or not.
-     * This means that the peasant is neither harvesting, nor building.
+     * This means that the peasant is neither harvesting, nor building,
+     * nor claimed for some work.
      *
      * @return Whether he is free
      */
     public boolean isFree(){
-        return !isHarvesting.get() && !isBuilding.get();
+        return this.state.get() == State.IDLE;
+    }
+
+    /**
+     * Claims the peasant for some work, if he is free.
+     * Only one caller can claim a free peasant.
+     *
+     * @return true if the peasant was claimed by the caller
+     */
+    boolean claim(){
+        return this.state.compareAndSet(State.IDLE, State.ASSIGNED);
+    }
+
+    /**
+     * Gives a claimed peasant back to the idle pool of the base, without any work.
+     */
+    void unclaim(){
+        if (this.state.compareAndSet(State.ASSIGNED, State.IDLE)) {
+            this.getOwner().releasePeasant(this);
+        }
+    }
+
+    public boolean isMining(){
+        return this.state.get() == State.MINING;
+    }
+
+    public boolean isCuttingWood(){
+        return this.state.get() == State.CUTTING_WOOD;
+    }
+
+    /**
+     * @return The building under construction, null if not building
+     */
+    public UnitType getBuilding(){
+        return this.state.get() == State.BUILDING ? this.building : null;
     }
 
 
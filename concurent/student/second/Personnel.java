@@ -1,77 +1,151 @@
 package concurent.student.second;
 
-import java.util.List;
-import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.SplittableRandom;
 
+/**
+ * A fighting unit. Its health, attack and place live in the {@link UnitStore}
+ * of the world, the personnel is a view of its slot there.
+ */
 public abstract class Personnel extends Unit {
 
-    private static final int ATTACK_WAIT_MINIMUM = 100;
-    private static final int ATTACK_WAIT_MAXIMUM = 200;
+    static final int ATTACK_WAIT_MINIMUM = 100;
+    static final int ATTACK_WAIT_MAXIMUM = 200;
 
-    private AtomicInteger health;
-    private final int attackMin;
-    private final int attackMax;
-    private Personnel opponent;
-    private static final Random random = new Random();
+    private final UnitStore store;
+    private final int slot;
+    // only used by the unit itself, so units never contend for randomness,
+    // restarted while the clock is paused for a checkpoint
+    private SplittableRandom random;
+    // position in the army of the owner, maintained by the army
+    int armySlot = -1;
 
     public Personnel(int health, Base owner, int attackMin, int attackMax, UnitType unitType) {
         super(owner, unitType);
-        this.health = new AtomicInteger(health);
-        this.attackMin = attackMin;
-        this.attackMax = attackMax;
+        this.store = owner.getWorld().getUnits();
+        this.random = owner.newUnitRandom();
+        float[] place = owner.getWorld().getBattlefield().spawnPoint(owner, random);
+        this.slot = store.add(owner.getStoreId(), unitType, health, attackMin, attackMax, place[0], place[1]);
+    }
+
+    public int getHealth() {
+        return store.getHealth(slot);
+    }
+
+    @Override
+    public float getX() {
+        return store.getX(slot);
+    }
+
+    @Override
+    public float getY() {
+        return store.getY(slot);
     }
 
     /**
-     * Starts a fight with an enemy army.
-     * If the personnel is still alive and there is an army to attack,
-     * the personnel will randomly select an opponent and start attacking.
-     *
-     * @param enemyArmy The enemy personnel
+     * Moves the personnel, the army it is in learns about the new place too.
      */
-    public void startWar(List<Personnel> enemyArmy){
-        while(this.getHealth() > 0 && enemyArmy.size() > 0) {
-            Thread fight = new Thread(() -> {
-                    int rndEnemy = random.nextInt(enemyArmy.size());
-                    this.opponent = enemyArmy.get(rndEnemy);
-                    startAttacking();
-            });
-            fight.start();
-            try {
-                fight.join();
-            } catch (InterruptedException e) {
-                System.out.println("Interrupt Occurred");
-                e.printStackTrace();
-            }
+    void moveTo(float x, float y) {
+        store.setPosition(slot, x, y);
+        if (armySlot >= 0) {
+            getOwner().getArmy().relocate(this);
         }
     }
 
     /**
-     * Starts attacking the current opponent.
-     * Keeps attacking the enemy until either this personnel or the enemy personnel is dead.
+     * Moves the personnel to a random place around the point its army lines up at.
      */
-    private void startAttacking(){
-        while(this.getHealth() > 0 && this.opponent.getHealth() > 0) {
-            int dmg = this.getAttack();
-            this.opponent.loseHealth(dmg);
-            int sleepTime = random.nextInt((ATTACK_WAIT_MAXIMUM/2)) + ATTACK_WAIT_MINIMUM;
-            sleepForMsec(sleepTime);
-        }
-        this.opponent = null;
+    void lineUp(float x, float y) {
+        float[] place = getOwner().getWorld().getBattlefield().pointAround(x, y, random);
+        moveTo(place[0], place[1]);
     }
 
-    public int getHealth() {
-        return health.get();
+    /**
+     * Sets the health, used when a unit is restored from a {@link Checkpoint}.
+     */
+    void setHealth(int health) {
+        store.setHealth(slot, health);
     }
 
+    /**
+     * Lowers the health, any number of attackers can hit the personnel at once.
+     * Only the hit that takes the health from positive to zero or below
+     * tells the owner about the death, so a personnel dies exactly once.
+     *
+     * @param amount The damage
+     */
     public void loseHealth(int amount) {
-        this.health.set(this.health.get() - amount);
-        if(this.health.get() <= 0){
+        this.getOwner().recordDamage(amount);
+        this.getOwner().journal(Journal.Kind.DAMAGE, this.getUnitType(), this.getId(), amount);
+        if (takeDamage(amount)) {
             this.getOwner().signalPersonnelDeath(this);
         }
     }
 
+    /**
+     * Lowers the health without telling the owner about a death.
+     * A single atomic add, so no damage is lost when several attackers hit at once.
+     *
+     * @param amount The damage
+     * @return true if this hit killed the personnel
+     */
+    boolean takeDamage(int amount) {
+        int before = store.damage(slot, amount);
+        return before > 0 && before - amount <= 0;
+    }
+
+    /**
+     * @return The slot of the personnel in the {@link UnitStore} of the world
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Restarts the random generator of the unit with a seed drawn from it,
+     * for a {@link Checkpoint}. A generator does not tell its state, the seed
+     * is saved instead.
+     *
+     * @return The seed the generator restarted from
+     */
+    long reseed() {
+        long next = random.nextLong();
+        random = new SplittableRandom(next);
+        return next;
+    }
+
+    /**
+     * Puts the unit back where it was and restarts its random generator,
+     * used when a unit is restored from a {@link Checkpoint}. Call it before
+     * the unit joins an army.
+     */
+    void restore(float x, float y, long seed) {
+        store.setPosition(slot, x, y);
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * @return The random generator of the unit, only to be used on its behalf
+     */
+    SplittableRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * @return Milliseconds to wait before the next attack
+     */
+    int nextAttackWait() {
+        return attackWait(random);
+    }
+
     public int getAttack(){
+        return attack(random, store.getAttackMin(slot), store.getAttackMax(slot));
+    }
+
+    static int attackWait(SplittableRandom random) {
+        return random.nextInt((ATTACK_WAIT_MAXIMUM/2)) + ATTACK_WAIT_MINIMUM;
+    }
+
+    static int attack(SplittableRandom random, int attackMin, int attackMax) {
         return random.nextInt(attackMax) + attackMin;
     }
 
@@ -0,0 +1,154 @@
+package concurent.student.second;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Orders of one unit type, trained by the buildings producing it:
+ * peasants by the town hall, footmen by the barracks.
+ *
+ * Every producing building is a training slot with its own trainer, so the
+ * slots train in parallel with each other and with the other queues.
+ * At most a fixed number of orders can wait to be started, whoever orders
+ * more waits until a slot takes one. A trainer waits for the cost of
+ * the order to be affordable before it starts training.
+ */
+public class ProductionQueue {
+
+    private final Base owner;
+    private final UnitType unitType;
+    private final int backlog;
+    private final SimulationClock clock;
+    private final Metrics.Histogram orderWait;
+
+    // places in the backlog taken by orders waiting for a slot
+    private final AtomicInteger waiting = new AtomicInteger();
+    // orders that are not yet trained
+    private final AtomicInteger unfinished = new AtomicInteger();
+    // orders waiting for a slot, by the time they were placed; a trainer takes
+    // an order from here, so every order is taken with its own time
+    private final Queue<Long> orders = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger slots = new AtomicInteger();
+    private final List<Task> trainers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * @param owner    The base the units are trained for
+     * @param unitType Type of the trained units
+     * @param backlog  Number of orders that can wait for a slot
+     */
+    public ProductionQueue(Base owner, UnitType unitType, int backlog) {
+        if (backlog < 1) {
+            throw new IllegalArgumentException("backlog must be positive");
+        }
+        this.owner = owner;
+        this.unitType = unitType;
+        this.backlog = backlog;
+        this.clock = owner.getClock();
+        this.orderWait = owner.getWorld().getMetrics()
+                .histogram(owner.getName() + ".queue." + unitType + ".wait");
+    }
+
+    /**
+     * Adds training slots until there are the given number of them,
+     * one for every producing building.
+     *
+     * @param count Number of producing buildings
+     */
+    public void ensureSlots(int count) {
+        int current = slots.get();
+        while (current < count && !closed) {
+            if (slots.compareAndSet(current, current + 1)) {
+                trainers.add(clock.start(this::train));
+            }
+            current = slots.get();
+        }
+    }
+
+    /**
+     * Places orders, waits while the backlog is full.
+     *
+     * @param count Number of units to order
+     */
+    public void order(int count) {
+        for (int i = 0; i < count; i++) {
+            order();
+        }
+    }
+
+    /**
+     * Places an order, waits while the backlog is full.
+     */
+    public void order() {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("The production queue is closed");
+            }
+            int current = waiting.get();
+            if (current < backlog) {
+                if (waiting.compareAndSet(current, current + 1)) {
+                    unfinished.incrementAndGet();
+                    orders.offer(clock.currentTimeMillis());
+                    clock.signalAll();
+                    return;
+                }
+            } else {
+                clock.awaitUntil(() -> waiting.get() < backlog || closed);
+            }
+        }
+    }
+
+    /**
+     * Waits until every order placed so far is trained.
+     */
+    public void awaitDone() {
+        clock.awaitUntil(() -> unfinished.get() == 0);
+    }
+
+    /**
+     * @return Number of orders that are not yet trained
+     */
+    public int getUnfinished() {
+        return unfinished.get();
+    }
+
+    public int getSlots() {
+        return slots.get();
+    }
+
+    public UnitType getUnitType() {
+        return unitType;
+    }
+
+    /**
+     * Stops the trainers once they finished what they are training.
+     * Orders that were not started are dropped.
+     */
+    public void close() {
+        closed = true;
+        clock.signalAll();
+        for (Task trainer : trainers) {
+            trainer.join();
+        }
+    }
+
+    private void train() {
+        while (!closed) {
+            clock.awaitUntil(() -> !orders.isEmpty() || closed);
+            Long ordered = orders.poll();
+            if (ordered != null) {
+                // the place in the backlog is free again
+                waiting.decrementAndGet();
+                clock.signalAll();
+                orderWait.record(clock.currentTimeMillis() - ordered);
+                owner.train(unitType);
+                unfinished.decrementAndGet();
+                clock.signalAll();
+            }
+        }
+    }
+
+}
@@ -1,37 +1,106 @@
 package concurent.student.second;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
 
 public class Resources {
 
     private static final int CAPACITY_LOWER_LIMIT = UnitType.PEASANT.foodCost * 5;
+    private static final long DEFAULT_MAX_STALENESS = Long.getLong("warcraft.resources.maxStaleness", -1);
 
-    private AtomicInteger gold;
-    private AtomicInteger wood;
-    private AtomicInteger capacityLimit;
-    private AtomicInteger capacity;
+    // every counter lives in one immutable snapshot, so a cost can be checked
+    // and deducted from all of them with a single compare-and-set
+    private final AtomicReference<Stock> stock;
+    private final SimulationClock clock;
+    // reservations neither committed nor rolled back yet
+    private final Set<Reservation> outstanding = ConcurrentHashMap.newKeySet();
 
-    public Resources(){
-        this.gold = new AtomicInteger(UnitType.PEASANT.goldCost * 5);
-        this.wood = new AtomicInteger(0);
-        this.capacityLimit = new AtomicInteger(CAPACITY_LOWER_LIMIT);
-        this.capacity = new AtomicInteger(0);
+    // striped accrual: harvested amounts are collected in striped cells and only
+    // folded into the stock once the stock is older than the allowed staleness
+    private volatile long maxStaleness = DEFAULT_MAX_STALENESS;
+    private volatile long lastFold;
+    private final LongAdder harvestedGold = new LongAdder();
+    private final LongAdder harvestedWood = new LongAdder();
+    private final AtomicLong foldedGold = new AtomicLong();
+    private final AtomicLong foldedWood = new AtomicLong();
+    private final Metrics.Rate goldIncome;
+    private final Metrics.Rate woodIncome;
+    private final Journal journal;
+    private final int journalId;
+
+    public Resources(SimulationClock clock){
+        this(new World(clock, 0, GameLog.silent()), "resources", 0);
+    }
+
+    /**
+     * @param world     The world of the base, for the clock, the metrics and the journal
+     * @param name      Prefix of the names of the metrics
+     * @param journalId Id of the base in the journal
+     */
+    public Resources(World world, String name, int journalId){
+        this.clock = world.getClock();
+        Metrics metrics = world.getMetrics();
+        this.goldIncome = metrics.rate(name + ".gold.income");
+        this.woodIncome = metrics.rate(name + ".wood.income");
+        this.journal = world.getJournal();
+        this.journalId = journalId;
+        this.stock = new AtomicReference<>(new Stock(UnitType.PEASANT.goldCost * 5, 0, 0, CAPACITY_LOWER_LIMIT));
+    }
+
+    /**
+     * Sets how old the gold and wood totals can be, when they are read.
+     * With a non-negative value harvested resources are collected in striped
+     * counters, so harvesters do not all fight over the same memory, and
+     * they are added to the totals at most this many milliseconds later.
+     * A negative value adds every harvest to the totals right away.
+     *
+     * @param millis Allowed staleness in simulation milliseconds
+     */
+    public void setMaxStaleness(long millis){
+        this.maxStaleness = millis;
+        foldHarvest();
+    }
+
+    public long getMaxStaleness(){
+        return this.maxStaleness;
     }
 
     public int getGold(){
-        return gold.get();
+        return fresh().gold;
     }
 
     public void addGold(int amount){
-        this.gold.set(this.gold.get() + amount);
+        goldIncome.add(amount);
+        journal(Journal.Kind.GOLD, amount);
+        if (maxStaleness >= 0) {
+            // signalled only if the harvest gets folded in
+            harvestedGold.add(amount);
+            foldHarvestIfStale();
+        } else {
+            update(s -> new Stock(s.gold + amount, s.wood, s.capacity, s.capacityLimit));
+            clock.signalAll();
+        }
     }
 
     public int getWood(){
-        return wood.get();
+        return fresh().wood;
     }
 
     public void addWood(int amount){
-        this.wood.set(this.wood.get() + amount);
+        woodIncome.add(amount);
+        journal(Journal.Kind.WOOD, amount);
+        if (maxStaleness >= 0) {
+            harvestedWood.add(amount);
+            foldHarvestIfStale();
+        } else {
+            update(s -> new Stock(s.gold, s.wood + amount, s.capacity, s.capacityLimit));
+            clock.signalAll();
+        }
     }
 
     /**
@@ -42,7 +111,7 @@ public class Resources {
      * @return True, if there are enough resources to build it, false otherwise
      */
     public boolean canBuild(int goldCost, int woodCost){
-        return gold.get() >= goldCost && wood.get() >= woodCost;
+        return fresh().covers(goldCost, woodCost, 0);
     }
 
     /**
@@ -54,31 +123,263 @@ public class Resources {
      * @return True, if there are enough resources to train it, false otherwise
      */
     public boolean canTrain(int goldCost, int woodCost, int foodCost){
-        return gold.get() >= goldCost && wood.get() >= woodCost && (capacity.get() + foodCost <= capacityLimit.get());
+        return fresh().covers(goldCost, woodCost, foodCost);
+    }
+
+    /**
+     * Waits until there are enough resources for the given cost.
+     * The resources are not reserved, so they might be spent by someone else
+     * by the time the caller gets to use them.
+     *
+     * @param goldCost Gold cost
+     * @param woodCost Wood cost
+     * @param foodCost Food cost, uses the capacity resource
+     */
+    public void awaitAffordable(int goldCost, int woodCost, int foodCost){
+        // the condition only reads the stock; a striped harvest is only signalled
+        // once it is folded in, so the waiter folds it itself when it may be stale
+        settle();
+        while (!stock.get().covers(goldCost, woodCost, foodCost)) {
+            long staleness = maxStaleness;
+            if (staleness < 0) {
+                clock.awaitUntil(() -> stock.get().covers(goldCost, woodCost, foodCost));
+            } else {
+                clock.awaitUntil(() -> stock.get().covers(goldCost, woodCost, foodCost), Math.max(staleness, 1));
+                settle();
+            }
+        }
+    }
+
+    /**
+     * Reserves the given cost, if there are enough resources for it.
+     * Checking and deducting gold, wood and capacity happens in one atomic step,
+     * so two producers can never spend the same resources.
+     *
+     * @param goldCost Gold cost
+     * @param woodCost Wood cost
+     * @param foodCost Food cost, uses the capacity resource
+     * @return The reservation, or null if there are insufficient resources
+     */
+    public Reservation tryReserve(int goldCost, int woodCost, int foodCost){
+        Stock current = fresh();
+        while (current.covers(goldCost, woodCost, foodCost)) {
+            Stock next = new Stock(current.gold - goldCost, current.wood - woodCost,
+                    current.capacity + foodCost, current.capacityLimit);
+            if (stock.compareAndSet(current, next)) {
+                journalCost(-goldCost, -woodCost, foodCost);
+                Reservation reservation = new Reservation(goldCost, woodCost, foodCost);
+                outstanding.add(reservation);
+                return reservation;
+            }
+            Thread.onSpinWait();
+            current = stock.get();
+        }
+        return null;
     }
 
     public void removeCost(int gold, int wood){
-        this.gold.set(this.gold.get() - gold);
-        this.wood.set(this.wood.get() - wood);
+        update(s -> new Stock(s.gold - gold, s.wood - wood, s.capacity, s.capacityLimit));
+        journalCost(-gold, -wood, 0);
+    }
+
+    /**
+     * Adds everything harvested so far to the totals, whatever the allowed staleness.
+     */
+    void settle(){
+        if (maxStaleness >= 0) {
+            foldHarvest();
+        }
+    }
+
+    /**
+     * @return The reservations that are neither committed nor rolled back yet,
+     *         the costs of the work in progress
+     */
+    Set<Reservation> getOutstanding(){
+        return outstanding;
+    }
+
+    /**
+     * Sets every counter, used when a base is restored from a {@link Checkpoint}.
+     */
+    void restore(int gold, int wood, int capacity, int capacityLimit){
+        settle();
+        stock.set(new Stock(gold, wood, capacity, capacityLimit));
+        clock.signalAll();
     }
 
     public int getCapacityLimit(){
-        return this.capacityLimit.get();
+        return stock.get().capacityLimit;
     }
 
     /**
      * Building a farm increases the capacity limit by 10
      */
     public void farmBuilt(){
-        this.capacityLimit.set(this.capacityLimit.get() + 10);
+        update(s -> new Stock(s.gold, s.wood, s.capacity, s.capacityLimit + 10));
+        journal(Journal.Kind.CAPACITY_LIMIT, 10);
+        clock.signalAll();
     }
 
     public int getCapacity(){
-        return this.capacity.get();
+        return stock.get().capacity;
     }
 
     public void updateCapacity(int foodCost){
-        this.capacity.set(this.capacity.get() + foodCost);
+        update(s -> new Stock(s.gold, s.wood, s.capacity + foodCost, s.capacityLimit));
+        journal(Journal.Kind.CAPACITY, foodCost);
+        clock.signalAll();
+    }
+
+    /**
+     * Folds the harvest in if it got too old, so it must not be called
+     * from a condition of the clock.
+     *
+     * @return The stock
+     */
+    private Stock fresh(){
+        if (maxStaleness >= 0) {
+            foldHarvestIfStale();
+        }
+        return stock.get();
+    }
+
+    private void foldHarvestIfStale(){
+        if (clock.currentTimeMillis() - lastFold >= maxStaleness) {
+            foldHarvest();
+        }
+    }
+
+    /**
+     * Moves everything harvested since the last fold into the stock.
+     */
+    private void foldHarvest(){
+        lastFold = clock.currentTimeMillis();
+        long gold = claim(harvestedGold, foldedGold);
+        long wood = claim(harvestedWood, foldedWood);
+        if (gold != 0 || wood != 0) {
+            update(s -> new Stock(s.gold + (int) gold, s.wood + (int) wood, s.capacity, s.capacityLimit));
+            clock.signalAll();
+        }
+    }
+
+    /**
+     * Claims the part of a harvest counter that was not yet folded into the stock.
+     * The counters only grow, so every harvested amount is claimed exactly once,
+     * even if several threads fold at the same time.
+     */
+    private static long claim(LongAdder harvested, AtomicLong folded){
+        long total = harvested.sum();
+        long already = folded.get();
+        while (total > already) {
+            if (folded.compareAndSet(already, total)) {
+                return total - already;
+            }
+            already = folded.get();
+        }
+        return 0;
+    }
+
+    private void journal(Journal.Kind kind, long amount){
+        if (journal.isEnabled()) {
+            journal.record(clock.currentTimeMillis(), kind, journalId, null, 0, amount);
+        }
+    }
+
+    private void journalCost(int gold, int wood, int food){
+        if (journal.isEnabled()) {
+            long now = clock.currentTimeMillis();
+            if (gold != 0) {
+                journal.record(now, Journal.Kind.GOLD, journalId, null, 0, gold);
+            }
+            if (wood != 0) {
+                journal.record(now, Journal.Kind.WOOD, journalId, null, 0, wood);
+            }
+            if (food != 0) {
+                journal.record(now, Journal.Kind.CAPACITY, journalId, null, 0, food);
+            }
+        }
+    }
+
+    private void update(UnaryOperator<Stock> change){
+        Stock current = stock.get();
+        while (!stock.compareAndSet(current, change.apply(current))) {
+            Thread.onSpinWait();
+            current = stock.get();
+        }
+    }
+
+    /**
+     * Resources set aside for a unit or a building.
+     * Either committed once the unit or building is done,
+     * or rolled back if it could not be made, which gives the resources back.
+     */
+    public class Reservation {
+
+        private final int gold;
+        private final int wood;
+        private final int food;
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+
+        private Reservation(int gold, int wood, int food){
+            this.gold = gold;
+            this.wood = wood;
+            this.food = food;
+        }
+
+        int getGold(){
+            return gold;
+        }
+
+        int getWood(){
+            return wood;
+        }
+
+        int getFood(){
+            return food;
+        }
+
+        /**
+         * The reserved resources are spent for good.
+         */
+        public void commit(){
+            settled.set(true);
+            outstanding.remove(this);
+        }
+
+        /**
+         * Gives the reserved resources back, unless the reservation
+         * was already committed or rolled back.
+         */
+        public void rollback(){
+            if (settled.compareAndSet(false, true)) {
+                outstanding.remove(this);
+                update(s -> new Stock(s.gold + gold, s.wood + wood, s.capacity - food, s.capacityLimit));
+                journalCost(gold, wood, -food);
+                clock.signalAll();
+            }
+        }
+
+    }
+
+    private static final class Stock {
+
+        final int gold;
+        final int wood;
+        final int capacity;
+        final int capacityLimit;
+
+        Stock(int gold, int wood, int capacity, int capacityLimit){
+            this.gold = gold;
+            this.wood = wood;
+            this.capacity = capacity;
+            this.capacityLimit = capacityLimit;
+        }
+
+        boolean covers(int goldCost, int woodCost, int foodCost){
+            return gold >= goldCost && wood >= woodCost && capacity + foodCost <= capacityLimit;
+        }
+
     }
 
 }
@@ -1,42 +1,53 @@
 package concurent.student.second;
 
-import java.util.concurrent.CountDownLatch;
+import java.nio.file.Paths;
+import java.util.Random;
 
 public class Simulation {
 
+    /**
+     * Runs a match between the Horde and the Allience.
+     *
+     * @param args "simulated" runs the match in simulated time,
+     *             otherwise the match runs in real time;
+     *             the "warcraft.journal" property names a file to write the journal of the match to,
+     *             "warcraft.checkpoint" a file to save the match to once the armies are assembled,
+     *             "warcraft.resume" a checkpoint to continue a match from, with the seed saved in it,
+     *             "warcraft.timeBudget" the milliseconds the match may take at most,
+     *             and "warcraft.factions" the comma separated names of the bases of a free-for-all;
+     *             a simulated match with the seed given in "warcraft.seed" can be played again
+     */
     public static void main(String[] args){
-        Base col1 = new Base("Horde");
-        Base col2 = new Base("Allience");
-        CountDownLatch latch = new CountDownLatch(2);
-        new Thread(() -> {
-            col1.startPreparation();
-            col1.assembleArmy(latch);
-        }).start();
-        new Thread(() -> {
-            col2.startPreparation();
-            col2.assembleArmy(latch);
-        }).start();
-
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        String[] factions = System.getProperty("warcraft.factions", "Horde,Allience").split(",");
+        UnitExecutor executor = UnitExecutor.shared();
+        SimulationClock clock = args.length > 0 && args[0].equals("simulated")
+                ? new DiscreteEventClock(executor)
+                : new WallClock(executor);
+        String journalFile = System.getProperty("warcraft.journal");
+        String resumeFile = System.getProperty("warcraft.resume");
+        Checkpoint checkpoint = resumeFile == null ? null : Checkpoint.read(Paths.get(resumeFile));
+        // a resumed match goes on in a world with the seed of the checkpoint
+        long seed = checkpoint != null ? checkpoint.getSeed() : Long.getLong("warcraft.seed", new Random().nextLong());
+        World world = new World(clock, seed, GameLog.console(),
+                journalFile == null ? Journal.disabled() : Journal.open(Paths.get(journalFile)));
+        // the metrics of the match can be watched with a JMX console while it runs
+        world.getMetrics().registerMBean("warcraft:type=Metrics");
+        Match match = new Match(world, factions);
+        String checkpointFile = System.getProperty("warcraft.checkpoint");
+        if (checkpointFile != null) {
+            match.setCheckpointFile(Paths.get(checkpointFile));
         }
-
-        System.out.println("Both bases finished their war preparation and assembled their armies");
-        CountDownLatch warLatch = new CountDownLatch(2);
-        Thread col1War = new Thread(() -> col1.goToWar(col2.getArmy(), warLatch));
-        Thread col2War = new Thread(() -> col2.goToWar(col1.getArmy(), warLatch));
-
-        col1War.start();
-        col2War.start();
-
-        try {
-            col1War.join();
-            col2War.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        match.setTimeBudget(Long.getLong("warcraft.timeBudget", 0));
+        MatchResult result = checkpoint == null ? match.play() : match.resume(checkpoint);
+        world.getLog().flush();
+        world.getJournal().close();
+        System.out.println("Seed: " + seed);
+        if (!result.isFinished()) {
+            System.out.println("The match was cancelled: " + world.getCancellation().getReason());
         }
-
+        System.out.println("The match took " + result.getDuration() + " ms, the preparation "
+                + result.getPreparationTime() + " ms");
+        System.out.println("Unit tasks created: " + clock.getExecutor().getCreatedTasks()
+                + ", still live: " + clock.getExecutor().getLiveTasks());
     }
 }
@@ -0,0 +1,121 @@
+package concurent.student.second;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Source of time for a simulation.
+ *
+ * Every duration in the game (harvesting, training, building, attacking)
+ * goes through the clock, so the same code can either run in real time
+ * or in simulated time. Every blocking call made by a unit thread has to
+ * go through the clock as well, otherwise a simulated clock can not know
+ * when it is safe to move time forward. That is also what lets the clock
+ * stop a simulation at once, when it is cancelled.
+ */
+public interface SimulationClock {
+
+    /**
+     * @return Milliseconds elapsed since the start of the simulation
+     */
+    long currentTimeMillis();
+
+    /**
+     * Blocks the calling unit thread for the given amount of simulation time.
+     *
+     * @param millis Duration in milliseconds
+     */
+    void sleep(long millis);
+
+    /**
+     * Starts a new unit thread.
+     *
+     * @param body The work to do
+     * @return Handle to wait for the work to finish
+     */
+    Task start(Runnable body);
+
+    /**
+     * Waits for a unit thread started by this clock to finish.
+     *
+     * @param task The task to wait for
+     */
+    void join(Task task);
+
+    /**
+     * Waits until the latch reaches zero.
+     *
+     * @param latch The latch to wait for
+     */
+    void await(CountDownLatch latch);
+
+    /**
+     * Parks the calling unit thread until the condition holds.
+     * The condition is checked again whenever {@link #signalAll()} is called,
+     * so every change of the state it reads has to be signalled.
+     * The condition must only read the state of the simulation.
+     *
+     * @param condition The condition to wait for
+     */
+    void awaitUntil(BooleanSupplier condition);
+
+    /**
+     * Parks the calling unit thread until the condition holds, or for the
+     * given time at most. The condition is checked like in
+     * {@link #awaitUntil(BooleanSupplier)}.
+     *
+     * @param condition The condition to wait for
+     * @param millis    Longest time to wait in milliseconds
+     * @return Whether the condition holds
+     */
+    boolean awaitUntil(BooleanSupplier condition, long millis);
+
+    /**
+     * Signals that the state of the simulation changed,
+     * the waiting unit threads should check their conditions again.
+     */
+    void signalAll();
+
+    /**
+     * Runs the action while every other unit thread of the clock is stopped
+     * in a call of the clock, so the action sees the simulation at rest.
+     * The unit threads go on once the action is done.
+     * Call it from a unit thread of the clock.
+     *
+     * @param action The work to do while the simulation is paused
+     */
+    void pause(Runnable action);
+
+    /**
+     * Cancellation of everything running on this clock. Once it is cancelled,
+     * the blocking calls of the clock throw a
+     * {@link java.util.concurrent.CancellationException}, and a unit thread
+     * that ends with it is considered finished.
+     *
+     * @return The cancellation of the simulation
+     */
+    Cancellation getCancellation();
+
+    /**
+     * @return The executor the unit threads of this clock run on
+     */
+    UnitExecutor getExecutor();
+
+    /**
+     * Runs the body on the calling thread as a participant of the simulation.
+     * This is the entry point of a simulation, the method returns once the
+     * body has finished.
+     *
+     * @param body The work to do
+     */
+    void run(Runnable body);
+
+    static SimulationClock wallClock() {
+        return new WallClock(UnitExecutor.shared());
+    }
+
+    static SimulationClock simulated() {
+        return new DiscreteEventClock(UnitExecutor.shared());
+    }
+
+}
@@ -0,0 +1,536 @@
+package concurent.student.second;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Uniform grid index of points on the battlefield, for finding the nearest
+ * point or the points in range without looking at all of them.
+ *
+ * The points are identified by small non-negative ints. Every cell keeps its
+ * points in a linked list threaded through arrays indexed by id, so inserting,
+ * moving and removing a point takes constant time and does not allocate.
+ *
+ * Every row of cells knows its first and last occupied cell. The nearest
+ * point is searched row by row, going away from the query, and in a row cell
+ * by cell from the one closest to the query; a row stops at the first cell
+ * that is further than the nearest point found so far, the search stops at the
+ * first row that is. So a query next to the points looks at a few cells, and a
+ * query from across the battlefield looks at about one cell per row, where the
+ * points begin, instead of crossing the empty cells in between.
+ *
+ * The grid covers a rectangle that grows when a point is put outside of it.
+ * Not thread-safe: queries can run in parallel only while nothing changes.
+ */
+public class SpatialGrid {
+
+    // cells added around the first point, and around the points outside when growing
+    private static final int MARGIN = 8;
+    // points to a cell a grid is sized for, when the number of points is known
+    private static final int POINTS_PER_CELL = 4;
+    // keeps the grid of a crowded area from getting huge
+    private static final float MIN_CELL_SIZE = 0.05f;
+    private static final int BAND_SHIFT = 3;
+    private static final int BAND = 1 << BAND_SHIFT;
+
+    private final float cellSize;
+
+    private float minX;
+    private float minY;
+    private int columns;
+    private int rows;
+    private int[] head = new int[0];
+    // points in every row, and the first and last occupied column of every row
+    private int[] rowCount = new int[0];
+    private int[] rowFirst = new int[0];
+    private int[] rowLast = new int[0];
+    // the same for every band of BAND rows
+    private int[] bandCount = new int[0];
+    private int[] bandFirst = new int[0];
+    private int[] bandLast = new int[0];
+    // bounds of the occupied rows, min above max while the grid is empty
+    private int minRow = Integer.MAX_VALUE;
+    private int maxRow = Integer.MIN_VALUE;
+
+    private int[] next = new int[16];
+    private int[] prev = new int[16];
+    private int[] cellOf = new int[16];
+    private float[] xs = new float[16];
+    private float[] ys = new float[16];
+    private int size;
+
+    /**
+     * @param cellSize Width and height of a cell, about the distance between neighbouring points is best
+     */
+    public SpatialGrid(float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive");
+        }
+        this.cellSize = cellSize;
+        Arrays.fill(cellOf, -1);
+    }
+
+    /**
+     * @param cellSize Width and height of a cell
+     * @param minX     Left edge of the area the points are expected in
+     * @param minY     Top edge of the area the points are expected in
+     * @param maxX     Right edge of the area the points are expected in
+     * @param maxY     Bottom edge of the area the points are expected in
+     * @param capacity Ids expected, from 0
+     */
+    public SpatialGrid(float cellSize, float minX, float minY, float maxX, float maxY, int capacity) {
+        this(cellSize);
+        cover(minX, minY, Math.max(1, (int) ((maxX - minX) / cellSize) + 1),
+                Math.max(1, (int) ((maxY - minY) / cellSize) + 1));
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Creates a grid for points spread over the given area.
+     *
+     * @param points Number of points expected, ids from 0
+     * @return An empty grid with about {@value #POINTS_PER_CELL} points to a cell
+     */
+    public static SpatialGrid covering(float minX, float minY, float maxX, float maxY, int points) {
+        float area = Math.max(maxX - minX, 1) * Math.max(maxY - minY, 1);
+        float cellSize = Math.max((float) Math.sqrt(area * POINTS_PER_CELL / Math.max(points, 1)), MIN_CELL_SIZE);
+        return new SpatialGrid(cellSize, minX, minY, maxX, maxY, points);
+    }
+
+    /**
+     * Puts a point into the grid, or moves it if it is already there.
+     */
+    public void insert(int id, float x, float y) {
+        ensureCapacity(id + 1);
+        if (cellOf[id] >= 0) {
+            move(id, x, y);
+            return;
+        }
+        xs[id] = x;
+        ys[id] = y;
+        link(id, cellFor(x, y));
+        size++;
+    }
+
+    /**
+     * Moves a point, puts it into the grid if it is not there yet.
+     */
+    public void move(int id, float x, float y) {
+        if (!contains(id)) {
+            insert(id, x, y);
+            return;
+        }
+        xs[id] = x;
+        ys[id] = y;
+        int cell = cellFor(x, y);
+        if (cell != cellOf[id]) {
+            unlink(id);
+            link(id, cell);
+        }
+    }
+
+    /**
+     * Removes a point, nothing happens if it is not in the grid.
+     */
+    public void remove(int id) {
+        if (contains(id)) {
+            unlink(id);
+            cellOf[id] = -1;
+            size--;
+        }
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < cellOf.length && cellOf[id] >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float getX(int id) {
+        return xs[id];
+    }
+
+    public float getY(int id) {
+        return ys[id];
+    }
+
+    /**
+     * @return The point closest to the given position, -1 if the grid is empty
+     */
+    public int nearest(float x, float y) {
+        return nearest(x, y, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param maxDistance Points further than this are not considered
+     * @return The point closest to the given position, -1 if there is none within the distance;
+     *         of points at the same distance, any one can be returned, but always the same one
+     */
+    public int nearest(float x, float y, float maxDistance) {
+        if (size == 0) {
+            return -1;
+        }
+        Search search = new Search(x, y, Math.nextUp(maxDistance * maxDistance));
+        int column = (int) Math.floor((x - minX) / cellSize);
+        int row = (int) Math.floor((y - minY) / cellSize);
+        if (row < minRow || row > maxRow || rowCount[row] == 0 || column < rowFirst[row] || column > rowLast[row]) {
+            closestEnd(column, search);
+        }
+        row = Math.min(Math.max(row, minRow), maxRow);
+        int band = row >> BAND_SHIFT;
+        for (int b = band; b <= maxRow >> BAND_SHIFT && scanBand(b, row, column, search); b++) {
+            // every band further down is further away
+        }
+        for (int b = band - 1; b >= minRow >> BAND_SHIFT && scanBand(b, row, column, search); b--) {
+            // every band further up is further away
+        }
+        return search.nearest;
+    }
+
+    /**
+     * The state of a search for the nearest point, one per query so queries can run in parallel.
+     */
+    private static final class Search {
+        final float x;
+        final float y;
+        // squared distance of the nearest point so far
+        float distance;
+        int nearest = -1;
+
+        Search(float x, float y, float distance) {
+            this.x = x;
+            this.y = y;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Looks into the cell closest to a searched position outside of the points:
+     * of the band with the closest occupied end, of its rows, the closest end.
+     * The bands are only scanned after this, with the distance of a point close to the nearest,
+     * so most of them are skipped whole instead of searched for a better point.
+     */
+    private void closestEnd(int column, Search search) {
+        int closestBand = -1;
+        float closest = Float.POSITIVE_INFINITY;
+        for (int b = minRow >> BAND_SHIFT; b <= maxRow >> BAND_SHIFT; b++) {
+            if (bandCount[b] > 0) {
+                float gap = gap(Math.min(Math.max(column, bandFirst[b]), bandLast[b]), b << BAND_SHIFT, BAND, search);
+                if (gap < closest) {
+                    closest = gap;
+                    closestBand = b;
+                }
+            }
+        }
+        if (closestBand < 0) {
+            return;
+        }
+        int closestRow = -1;
+        int closestColumn = -1;
+        closest = Float.POSITIVE_INFINITY;
+        int to = Math.min((closestBand + 1) << BAND_SHIFT, rows);
+        for (int r = closestBand << BAND_SHIFT; r < to; r++) {
+            if (rowCount[r] > 0) {
+                int c = Math.min(Math.max(column, rowFirst[r]), rowLast[r]);
+                float gap = gap(c, r, 1, search);
+                if (gap < closest) {
+                    closest = gap;
+                    closestRow = r;
+                    closestColumn = c;
+                }
+            }
+        }
+        for (int id = head[closestRow * columns + closestColumn]; id >= 0; id = next[id]) {
+            float d = distance(id, search.x, search.y);
+            if (d < search.distance) {
+                search.nearest = id;
+                search.distance = d;
+            }
+        }
+    }
+
+    /**
+     * @param cells Height of the area, in rows of cells
+     * @return Squared distance of the searched position from the area of a column of cells
+     */
+    private float gap(int column, int row, int cells, Search search) {
+        float left = minX + column * cellSize;
+        float top = minY + row * cellSize;
+        float dx = Math.max(Math.max(left - search.x, search.x - (left + cellSize)), 0);
+        float dy = Math.max(Math.max(top - search.y, search.y - (top + cells * cellSize)), 0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Looks into the rows of a band, from the one closest to the searched position outwards,
+     * unless every occupied cell of the band is further than the nearest point so far.
+     *
+     * @return false if the band is further than the nearest point so far,
+     *         and so is every band beyond it
+     */
+    private boolean scanBand(int band, int row, int column, Search search) {
+        int first = band << BAND_SHIFT;
+        int last = Math.min(first + BAND, rows) - 1;
+        float top = minY + first * cellSize;
+        float dy = Math.max(Math.max(top - search.y, search.y - (top + BAND * cellSize)), 0);
+        if (dy * dy >= search.distance) {
+            return false;
+        }
+        if (bandCount[band] == 0
+                || gap(Math.min(Math.max(column, bandFirst[band]), bandLast[band]), first, BAND, search)
+                        >= search.distance) {
+            return true;
+        }
+        int start = Math.min(Math.max(row, first), last);
+        for (int r = start; r <= last && scanRow(r, column, search); r++) {
+            // every row further down is further away
+        }
+        for (int r = start - 1; r >= first && scanRow(r, column, search); r--) {
+            // every row further up is further away
+        }
+        return true;
+    }
+
+    /**
+     * Looks into the occupied cells of a row, from the one closest to the searched
+     * position outwards, until the cells get further than the nearest point so far.
+     *
+     * @return false if the row is further than the nearest point so far,
+     *         and so is every row beyond it
+     */
+    private boolean scanRow(int row, int column, Search search) {
+        float top = minY + row * cellSize;
+        float dy = Math.max(Math.max(top - search.y, search.y - (top + cellSize)), 0);
+        if (dy * dy >= search.distance) {
+            return false;
+        }
+        if (rowCount[row] == 0) {
+            return true;
+        }
+        int first = rowFirst[row];
+        int last = rowLast[row];
+        int start = Math.min(Math.max(column, first), last);
+        for (int c = start; c <= last && scanCell(c, row, dy, search); c++) {
+            // every cell further right is further away
+        }
+        for (int c = start - 1; c >= first && scanCell(c, row, dy, search); c--) {
+            // every cell further left is further away
+        }
+        return true;
+    }
+
+    /**
+     * @param dy Vertical distance of the searched position from the row
+     * @return false if the cell is further than the nearest point so far
+     */
+    private boolean scanCell(int column, int row, float dy, Search search) {
+        float left = minX + column * cellSize;
+        float dx = Math.max(Math.max(left - search.x, search.x - (left + cellSize)), 0);
+        if (dx * dx + dy * dy >= search.distance) {
+            return false;
+        }
+        for (int id = head[row * columns + column]; id >= 0; id = next[id]) {
+            float d = distance(id, search.x, search.y);
+            if (d < search.distance) {
+                search.nearest = id;
+                search.distance = d;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calls the action with every point within the radius of the given position.
+     *
+     * @return Number of points found
+     */
+    public int forEachInRange(float x, float y, float radius, IntConsumer action) {
+        if (size == 0) {
+            return 0;
+        }
+        int fromRow = Math.max(minRow, (int) Math.floor((y - radius - minY) / cellSize));
+        int toRow = Math.min(maxRow, (int) Math.floor((y + radius - minY) / cellSize));
+        int fromColumn = (int) Math.floor((x - radius - minX) / cellSize);
+        int toColumn = (int) Math.floor((x + radius - minX) / cellSize);
+        float range = radius * radius;
+        int found = 0;
+        for (int r = fromRow; r <= toRow; r++) {
+            if (rowCount[r] == 0) {
+                continue;
+            }
+            int last = Math.min(toColumn, rowLast[r]);
+            for (int c = Math.max(fromColumn, rowFirst[r]); c <= last; c++) {
+                for (int id = head[r * columns + c]; id >= 0; id = next[id]) {
+                    if (distance(id, x, y) <= range) {
+                        action.accept(id);
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private float distance(int id, float x, float y) {
+        float dx = xs[id] - x;
+        float dy = ys[id] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @return The cell of the position, the grid grows first if it is outside
+     */
+    private int cellFor(float x, float y) {
+        int column = (int) Math.floor((x - minX) / cellSize);
+        int row = (int) Math.floor((y - minY) / cellSize);
+        if (columns == 0) {
+            cover(x - MARGIN * cellSize, y - MARGIN * cellSize, 2 * MARGIN + 1, 2 * MARGIN + 1);
+            return cellFor(x, y);
+        }
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            grow(column, row);
+            return cellFor(x, y);
+        }
+        return row * columns + column;
+    }
+
+    /**
+     * Makes the grid cover the given cell too, with room to spare, and puts every point back.
+     */
+    private void grow(int column, int row) {
+        int addLeft = column < 0 ? Math.max(-column + MARGIN, columns) : 0;
+        int addTop = row < 0 ? Math.max(-row + MARGIN, rows) : 0;
+        int addRight = column >= columns ? Math.max(column - columns + 1 + MARGIN, columns) : 0;
+        int addBottom = row >= rows ? Math.max(row - rows + 1 + MARGIN, rows) : 0;
+        cover(minX - addLeft * cellSize, minY - addTop * cellSize,
+                columns + addLeft + addRight, rows + addTop + addBottom);
+        for (int id = 0; id < cellOf.length; id++) {
+            if (cellOf[id] >= 0) {
+                link(id, cellFor(xs[id], ys[id]));
+            }
+        }
+    }
+
+    /**
+     * Sets the area of the grid, every cell empty.
+     */
+    private void cover(float minX, float minY, int columns, int rows) {
+        if ((long) columns * rows > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("The grid would be too big, use bigger cells");
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.columns = columns;
+        this.rows = rows;
+        this.head = new int[columns * rows];
+        Arrays.fill(head, -1);
+        this.rowCount = new int[rows];
+        this.rowFirst = new int[rows];
+        this.rowLast = new int[rows];
+        int bands = (rows + BAND - 1) >> BAND_SHIFT;
+        this.bandCount = new int[bands];
+        this.bandFirst = new int[bands];
+        this.bandLast = new int[bands];
+        minRow = Integer.MAX_VALUE;
+        maxRow = Integer.MIN_VALUE;
+    }
+
+    private void link(int id, int cell) {
+        int first = head[cell];
+        next[id] = first;
+        prev[id] = -1;
+        if (first >= 0) {
+            prev[first] = id;
+        }
+        head[cell] = id;
+        cellOf[id] = cell;
+        int column = cell % columns;
+        int row = cell / columns;
+        if (rowCount[row]++ == 0) {
+            rowFirst[row] = column;
+            rowLast[row] = column;
+        } else {
+            rowFirst[row] = Math.min(rowFirst[row], column);
+            rowLast[row] = Math.max(rowLast[row], column);
+        }
+        int band = row >> BAND_SHIFT;
+        if (bandCount[band]++ == 0) {
+            bandFirst[band] = column;
+            bandLast[band] = column;
+        } else {
+            bandFirst[band] = Math.min(bandFirst[band], column);
+            bandLast[band] = Math.max(bandLast[band], column);
+        }
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+    }
+
+    private void unlink(int id) {
+        int cell = cellOf[id];
+        int before = prev[id];
+        int after = next[id];
+        if (before >= 0) {
+            next[before] = after;
+        } else {
+            head[cell] = after;
+        }
+        if (after >= 0) {
+            prev[after] = before;
+        }
+        int row = cell / columns;
+        int column = cell % columns;
+        if (--rowCount[row] > 0) {
+            // the ends of the row move inwards past the cells that got empty
+            int offset = row * columns;
+            while (head[offset + rowFirst[row]] < 0) {
+                rowFirst[row]++;
+            }
+            while (head[offset + rowLast[row]] < 0) {
+                rowLast[row]--;
+            }
+        }
+        int band = row >> BAND_SHIFT;
+        if (--bandCount[band] > 0 && (column == bandFirst[band] || column == bandLast[band])) {
+            bandFirst[band] = Integer.MAX_VALUE;
+            bandLast[band] = Integer.MIN_VALUE;
+            int to = Math.min((band + 1) << BAND_SHIFT, rows);
+            for (int r = band << BAND_SHIFT; r < to; r++) {
+                if (rowCount[r] > 0) {
+                    bandFirst[band] = Math.min(bandFirst[band], rowFirst[r]);
+                    bandLast[band] = Math.max(bandLast[band], rowLast[r]);
+                }
+            }
+        }
+        if (rowCount[row] > 0) {
+            return;
+        }
+        if (minRow == maxRow) {
+            minRow = Integer.MAX_VALUE;
+            maxRow = Integer.MIN_VALUE;
+            return;
+        }
+        while (rowCount[minRow] == 0) {
+            minRow++;
+        }
+        while (rowCount[maxRow] == 0) {
+            maxRow--;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= cellOf.length) {
+            return;
+        }
+        int length = Math.max(capacity, cellOf.length * 2);
+        int old = cellOf.length;
+        next = Arrays.copyOf(next, length);
+        prev = Arrays.copyOf(prev, length);
+        xs = Arrays.copyOf(xs, length);
+        ys = Arrays.copyOf(ys, length);
+        cellOf = Arrays.copyOf(cellOf, length);
+        Arrays.fill(cellOf, old, length, -1);
+    }
+
+}
@@ -0,0 +1,36 @@
+package concurent.student.second;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Handle of a unit thread started by a {@link SimulationClock}.
+ */
+public final class Task {
+
+    private final SimulationClock clock;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    Task(SimulationClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Waits until the task has finished.
+     */
+    public void join() {
+        clock.join(this);
+    }
+
+    public boolean isDone() {
+        return finished.getCount() == 0;
+    }
+
+    void markDone() {
+        finished.countDown();
+    }
+
+    CountDownLatch finishedLatch() {
+        return finished;
+    }
+
+}
@@ -0,0 +1,74 @@
+package concurent.student.second;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What has to exist before a unit can be trained or a building can be built,
+ * as a directed acyclic graph over the unit types.
+ */
+public class TechTree {
+
+    private final Map<UnitType, Set<UnitType>> prerequisites = new EnumMap<>(UnitType.class);
+    private final Map<UnitType, Set<UnitType>> dependents = new EnumMap<>(UnitType.class);
+
+    public TechTree() {
+        for (UnitType type : UnitType.values()) {
+            prerequisites.put(type, EnumSet.noneOf(UnitType.class));
+            dependents.put(type, EnumSet.noneOf(UnitType.class));
+        }
+    }
+
+    /**
+     * The rules of the game: footmen are trained in the barracks, and the units
+     * trained during the preparation need the food of the farms. The town hall
+     * feeds five peasants, as many as a base starts with, so even the first
+     * peasant trained waits for a farm.
+     */
+    public static TechTree standard() {
+        return new TechTree()
+                .requires(UnitType.PEASANT, UnitType.FARM)
+                .requires(UnitType.FOOTMAN, UnitType.FARM, UnitType.BARRACKS);
+    }
+
+    /**
+     * Declares that a type needs at least one of each of the prerequisites.
+     *
+     * @throws IllegalArgumentException if a prerequisite (indirectly) needs the type itself
+     */
+    public TechTree requires(UnitType type, UnitType... required) {
+        for (UnitType prerequisite : required) {
+            if (prerequisite == type || dependsOn(prerequisite, type)) {
+                throw new IllegalArgumentException(type + " can not require " + prerequisite
+                        + ", it would make a cycle");
+            }
+            prerequisites.get(type).add(prerequisite);
+            dependents.get(prerequisite).add(type);
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the type needs the other type, directly or through other types
+     */
+    public boolean dependsOn(UnitType type, UnitType other) {
+        for (UnitType prerequisite : prerequisites.get(type)) {
+            if (prerequisite == other || dependsOn(prerequisite, other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Set<UnitType> getPrerequisites(UnitType type) {
+        return Collections.unmodifiableSet(prerequisites.get(type));
+    }
+
+    public Set<UnitType> getDependents(UnitType type) {
+        return Collections.unmodifiableSet(dependents.get(type));
+    }
+
+}
@@ -0,0 +1,210 @@
+package concurent.student.second;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A round-robin tournament: every faction plays one match against every other one.
+ *
+ * The matches do not share anything, every one of them runs in simulated time
+ * on its own world, so they are spread over a pool of workers and the
+ * tournament gets faster with every core. Every match gets its own seed,
+ * derived from the seed of the tournament, in the order of the pairings,
+ * so a tournament can be repeated.
+ */
+public class Tournament {
+
+    private static final int WIN_POINTS = 3;
+    private static final int DRAW_POINTS = 1;
+
+    private final List<String> factions;
+    private final int parallelism;
+    private final long seed;
+    private long timeBudget = BatchRunner.DEFAULT_TIME_BUDGET;
+
+    /**
+     * @param factions    Names of the factions, at least two
+     * @param parallelism Number of matches to play at the same time
+     * @param seed        Seed of the tournament
+     */
+    public Tournament(List<String> factions, int parallelism, long seed) {
+        if (factions.size() < 2 || parallelism < 1) {
+            throw new IllegalArgumentException("a tournament needs two factions and a positive parallelism");
+        }
+        this.factions = List.copyOf(factions);
+        this.parallelism = parallelism;
+        this.seed = seed;
+    }
+
+    /**
+     * @param millis Simulation time a match may take at most, 0 for no limit
+     */
+    public void setTimeBudget(long millis) {
+        this.timeBudget = millis;
+    }
+
+    /**
+     * Plays every pairing of the tournament.
+     *
+     * @return The standings of the factions
+     */
+    public Standings run() {
+        long start = System.nanoTime();
+        UnitExecutor executor = UnitExecutor.create();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            SplittableRandom seeds = new SplittableRandom(seed);
+            List<ForkJoinTask<MatchResult>> results = new ArrayList<>();
+            List<String[]> pairings = new ArrayList<>();
+            for (int i = 0; i < factions.size(); i++) {
+                for (int j = i + 1; j < factions.size(); j++) {
+                    String[] pairing = { factions.get(i), factions.get(j) };
+                    long matchSeed = seeds.nextLong();
+                    pairings.add(pairing);
+                    results.add(pool.submit(() -> playMatch(pairing, matchSeed, executor)));
+                }
+            }
+            Standings standings = new Standings(factions);
+            for (int i = 0; i < results.size(); i++) {
+                standings.add(pairings.get(i), results.get(i).join());
+            }
+            standings.wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return standings;
+        } finally {
+            pool.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    private MatchResult playMatch(String[] pairing, long seed, UnitExecutor executor) {
+        World world = new World(new DiscreteEventClock(executor), seed, GameLog.silent());
+        Match match = new Match(world, pairing);
+        match.setTimeBudget(timeBudget);
+        return match.play();
+    }
+
+    /**
+     * Plays a tournament and prints its standings.
+     *
+     * @param args Number of factions, number of parallel matches and the seed,
+     *             defaults to 16 factions on every core with seed 42
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        List<String> factions = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            factions.add("Faction " + i);
+        }
+        System.out.println(new Tournament(factions, parallelism, seed).run());
+    }
+
+    /**
+     * Wins, draws and losses of every faction:
+     * a win is worth {@value #WIN_POINTS} points, a draw {@value #DRAW_POINTS}.
+     * A match cut short by its time budget is worth nothing to either side.
+     */
+    public static class Standings {
+
+        private static final int WINS = 0;
+        private static final int DRAWS = 1;
+        private static final int LOSSES = 2;
+
+        private final Map<String, int[]> records = new LinkedHashMap<>();
+        private int matches;
+        private int unfinished;
+        private long wallTime;
+
+        private Standings(List<String> factions) {
+            for (String faction : factions) {
+                records.put(faction, new int[3]);
+            }
+        }
+
+        private void add(String[] pairing, MatchResult result) {
+            matches++;
+            if (!result.isFinished()) {
+                unfinished++;
+            } else if (result.getWinner() == null) {
+                for (String faction : pairing) {
+                    records.get(faction)[DRAWS]++;
+                }
+            } else {
+                for (String faction : pairing) {
+                    records.get(faction)[faction.equals(result.getWinner()) ? WINS : LOSSES]++;
+                }
+            }
+        }
+
+        public int getMatches() {
+            return matches;
+        }
+
+        public int getWins(String faction) {
+            return records.get(faction)[WINS];
+        }
+
+        public int getDraws(String faction) {
+            return records.get(faction)[DRAWS];
+        }
+
+        public int getLosses(String faction) {
+            return records.get(faction)[LOSSES];
+        }
+
+        public int getPoints(String faction) {
+            return getWins(faction) * WIN_POINTS + getDraws(faction) * DRAW_POINTS;
+        }
+
+        /**
+         * @return Number of matches cut short by their time budget
+         */
+        public int getUnfinished() {
+            return unfinished;
+        }
+
+        /**
+         * @return The factions, the one with the most points first
+         */
+        public List<String> getRanking() {
+            List<String> ranking = new ArrayList<>(records.keySet());
+            ranking.sort(Comparator.comparingInt(this::getPoints).reversed());
+            return ranking;
+        }
+
+        /**
+         * @return Real milliseconds it took to play the tournament
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(matches).append(" matches in ").append(wallTime).append(" ms");
+            if (wallTime > 0) {
+                sb.append(String.format(" (%.0f matches per minute)", matches * 60000.0 / wallTime));
+            }
+            sb.append(System.lineSeparator());
+            for (String faction : getRanking()) {
+                sb.append(String.format("%-12s %3d points  %d won, %d drawn, %d lost%n", faction,
+                        getPoints(faction), getWins(faction), getDraws(faction), getLosses(faction)));
+            }
+            if (unfinished > 0) {
+                sb.append("unfinished: ").append(unfinished).append(System.lineSeparator());
+            }
+            return sb.toString().trim();
+        }
+
+    }
+
+}
@@ -1,14 +1,21 @@
 package concurent.student.second;
 
-import java.util.concurrent.TimeUnit;
-
 public abstract class Unit {
     private final Base owner;
     private final UnitType unitType;
+    private final int id;
 
     public Unit(Base owner, UnitType unitType) {
         this.owner = owner;
         this.unitType = unitType;
+        this.id = owner.nextUnitId();
+    }
+
+    /**
+     * @return Number of the unit, unique within its base
+     */
+    public int getId(){
+        return id;
     }
 
     public Base getOwner(){
@@ -19,11 +26,24 @@ public abstract class Unit {
         return unitType;
     }
 
-    protected static void sleepForMsec(int sleepTime) {
-        try {
-            TimeUnit.MILLISECONDS.sleep(sleepTime);
-        } catch (InterruptedException e) {
-        }
+    /**
+     * @return Horizontal place of the unit on the battlefield
+     */
+    public abstract float getX();
+
+    /**
+     * @return Vertical place of the unit on the battlefield
+     */
+    public abstract float getY();
+
+    /**
+     * Sleeps on the clock of the owner.
+     *
+     * @throws java.util.concurrent.CancellationException if the simulation is cancelled meanwhile,
+     *         which ends the loop of the unit
+     */
+    protected void sleepForMsec(int sleepTime) {
+        owner.getClock().sleep(sleepTime);
     }
 
 }
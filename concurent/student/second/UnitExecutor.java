@@ -0,0 +1,125 @@
+package concurent.student.second;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the activity of the units (harvesting, building, training, fighting).
+ *
+ * Uses virtual threads when the JVM has them, so a unit waiting for its next
+ * action costs almost nothing. On older JVMs it falls back to a pool of
+ * platform threads that grows with the tasks. Unit tasks block for the whole
+ * time they are active, and a discrete-event clock releases a participant
+ * expecting it to run, so every task has to get a thread as soon as it is
+ * given to the executor. A task waiting in a queue for a free thread would
+ * stop the simulation. Idle threads of the pool are dropped after a while.
+ */
+public class UnitExecutor {
+
+    private static final UnitExecutor SHARED = create();
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final AtomicInteger liveTasks = new AtomicInteger();
+    private final AtomicLong createdTasks = new AtomicLong();
+
+    private UnitExecutor(ExecutorService executor, boolean virtual) {
+        this.executor = executor;
+        this.virtual = virtual;
+    }
+
+    /**
+     * @return The executor shared by every simulation that did not get its own
+     */
+    public static UnitExecutor shared() {
+        return SHARED;
+    }
+
+    /**
+     * Creates an executor on virtual threads if possible,
+     * on a pool of platform threads otherwise.
+     * Setting the "warcraft.executor" property to "platform" forces the pool.
+     */
+    public static UnitExecutor create() {
+        if (!"platform".equals(System.getProperty("warcraft.executor"))) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                return new UnitExecutor(virtualExecutor, true);
+            }
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "unit-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // no queue, a task either gets an idle thread or a new one
+        ExecutorService pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), factory);
+        return new UnitExecutor(pool, false);
+    }
+
+    /**
+     * Virtual threads only exist from Java 21, they are looked up reflectively
+     * so the game still compiles and runs on older versions.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the task asynchronously.
+     *
+     * @param task The unit activity
+     */
+    public void execute(Runnable task) {
+        createdTasks.incrementAndGet();
+        liveTasks.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    liveTasks.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            liveTasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of tasks that are running or waiting to run
+     */
+    public int getLiveTasks() {
+        return liveTasks.get();
+    }
+
+    /**
+     * @return Number of tasks ever given to this executor
+     */
+    public long getCreatedTasks() {
+        return createdTasks.get();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
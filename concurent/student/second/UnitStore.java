@@ -0,0 +1,219 @@
+package concurent.student.second;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The fighting state of every personnel of a world, in primitive columns:
+ * health, minimum and maximum attack, owner, type and place on the battlefield.
+ *
+ * A {@link Personnel} is only a view of its slot in the store, so a big army
+ * costs a few ints per soldier instead of a tree of objects, and loops over
+ * many units (the combat engine, the statistics of a base) read consecutive
+ * memory instead of chasing pointers.
+ *
+ * The columns are split into pages of {@value #PAGE_SIZE} slots. Pages never
+ * move, the store grows by adding pages, so a slot can be read and written
+ * without locking while other units are added. The health is changed with
+ * atomic adds, any number of attackers can hit the same slot at once.
+ * The place of a unit is only changed by whoever moves it, and read without
+ * ordering: a unit seen at a place it has just left is fine.
+ */
+public class UnitStore {
+
+    static final int PAGE_SHIFT = 12;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final UnitType[] UNIT_TYPES = UnitType.values();
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final List<Base> owners = new CopyOnWriteArrayList<>();
+    // only replaced by a bigger copy, under the lock of the store
+    private volatile Page[] pages = new Page[0];
+
+    /**
+     * The columns of {@value #PAGE_SIZE} consecutive slots.
+     */
+    private static final class Page {
+        final int[] health = new int[PAGE_SIZE];
+        final int[] attackMin = new int[PAGE_SIZE];
+        final int[] attackMax = new int[PAGE_SIZE];
+        final int[] owner = new int[PAGE_SIZE];
+        final float[] x = new float[PAGE_SIZE];
+        final float[] y = new float[PAGE_SIZE];
+        // ordinal of the type plus one, 0 while the slot is being filled
+        final byte[] type = new byte[PAGE_SIZE];
+    }
+
+    /**
+     * @param base A base whose units are kept in the store
+     * @return Id of the base in the store
+     */
+    public int registerOwner(Base base) {
+        synchronized (owners) {
+            owners.add(base);
+            return owners.size() - 1;
+        }
+    }
+
+    /**
+     * Stores a new unit.
+     *
+     * @return The slot of the unit
+     */
+    public int add(int owner, UnitType type, int health, int attackMin, int attackMax, float x, float y) {
+        int slot = size.getAndIncrement();
+        Page page = page(slot >>> PAGE_SHIFT);
+        int i = slot & PAGE_MASK;
+        page.attackMin[i] = attackMin;
+        page.attackMax[i] = attackMax;
+        page.owner[i] = owner;
+        page.x[i] = x;
+        page.y[i] = y;
+        INTS.setVolatile(page.health, i, health);
+        // the type is written last, a scan skips the slots without it
+        BYTES.setRelease(page.type, i, (byte) (type.ordinal() + 1));
+        return slot;
+    }
+
+    private Page page(int index) {
+        Page[] current = pages;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = pages;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+            }
+            for (int p = 0; p <= index; p++) {
+                if (current[p] == null) {
+                    current[p] = new Page();
+                }
+            }
+            pages = current;
+            return current[index];
+        }
+    }
+
+    private Page pageOf(int slot) {
+        return pages[slot >>> PAGE_SHIFT];
+    }
+
+    public int getHealth(int slot) {
+        return (int) INTS.getVolatile(pageOf(slot).health, slot & PAGE_MASK);
+    }
+
+    public void setHealth(int slot, int health) {
+        INTS.setVolatile(pageOf(slot).health, slot & PAGE_MASK, health);
+    }
+
+    /**
+     * Lowers the health of a unit with a single atomic add.
+     *
+     * @return The health before the damage
+     */
+    public int damage(int slot, int amount) {
+        return (int) INTS.getAndAdd(pageOf(slot).health, slot & PAGE_MASK, -amount);
+    }
+
+    public int getAttackMin(int slot) {
+        return pageOf(slot).attackMin[slot & PAGE_MASK];
+    }
+
+    public int getAttackMax(int slot) {
+        return pageOf(slot).attackMax[slot & PAGE_MASK];
+    }
+
+    public float getX(int slot) {
+        return pageOf(slot).x[slot & PAGE_MASK];
+    }
+
+    public float getY(int slot) {
+        return pageOf(slot).y[slot & PAGE_MASK];
+    }
+
+    public void setPosition(int slot, float x, float y) {
+        Page page = pageOf(slot);
+        page.x[slot & PAGE_MASK] = x;
+        page.y[slot & PAGE_MASK] = y;
+    }
+
+    public Base getOwner(int slot) {
+        return owners.get(pageOf(slot).owner[slot & PAGE_MASK]);
+    }
+
+    public UnitType getUnitType(int slot) {
+        return UNIT_TYPES[pageOf(slot).type[slot & PAGE_MASK] - 1];
+    }
+
+    /**
+     * @return Number of slots ever taken, the dead units keep their slots
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Counts the living units of an owner, page by page.
+     *
+     * @param owner Id of the base
+     * @param type  Type of the units, null for every type
+     */
+    public int countAlive(int owner, UnitType type) {
+        int count = 0;
+        byte wanted = type == null ? 0 : (byte) (type.ordinal() + 1);
+        Page[] current = pages;
+        int slots = size.get();
+        for (int p = 0; p < current.length && p << PAGE_SHIFT < slots; p++) {
+            Page page = current[p];
+            if (page == null) {
+                // a unit is being added to a new page
+                break;
+            }
+            int end = Math.min(PAGE_SIZE, slots - (p << PAGE_SHIFT));
+            for (int i = 0; i < end; i++) {
+                byte slotType = (byte) BYTES.getAcquire(page.type, i);
+                if (slotType != 0 && page.owner[i] == owner && (wanted == 0 || slotType == wanted)
+                        && page.health[i] > 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sums the health of the living units of an owner, page by page.
+     *
+     * @param owner Id of the base
+     */
+    public long totalHealth(int owner) {
+        long total = 0;
+        Page[] current = pages;
+        int slots = size.get();
+        for (int p = 0; p < current.length && p << PAGE_SHIFT < slots; p++) {
+            Page page = current[p];
+            if (page == null) {
+                // a unit is being added to a new page
+                break;
+            }
+            int end = Math.min(PAGE_SIZE, slots - (p << PAGE_SHIFT));
+            for (int i = 0; i < end; i++) {
+                int health = page.health[i];
+                if (health > 0 && page.owner[i] == owner && (byte) BYTES.getAcquire(page.type, i) != 0) {
+                    total += health;
+                }
+            }
+        }
+        return total;
+    }
+
+}
@@ -22,4 +22,11 @@ public enum UnitType {
         this.buildTime = buildTime;
     }
 
+    /**
+     * @return true for the types built by peasants, false for the trained units
+     */
+    public boolean isBuilding(){
+        return this != PEASANT && this != FOOTMAN;
+    }
+
 }
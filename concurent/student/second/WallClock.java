@@ -0,0 +1,302 @@
+package concurent.student.second;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Real time clock, every duration is actually slept through.
+ * Useful for demos, where the simulation should be watched as it happens.
+ *
+ * The unit threads blocked in the clock are interrupted when the simulation
+ * is cancelled, so they stop at once, even in the middle of a long sleep.
+ *
+ * The clock knows how many unit threads run outside of its calls. A pause
+ * waits until none does, and the threads coming out of a call meanwhile
+ * wait until the pause is over.
+ */
+public class WallClock implements SimulationClock {
+
+    private final long startNanos = System.nanoTime();
+    private final UnitExecutor executor;
+    private final Cancellation cancellation = new Cancellation();
+
+    private final ReentrantLock signalLock = new ReentrantLock();
+    private final Condition stateChanged = signalLock.newCondition();
+    // lets signalAll skip the lock when nobody is waiting
+    private final AtomicInteger waiting = new AtomicInteger();
+    // threads blocked in a call of the clock, interrupted on cancellation;
+    // interrupting and leaving the set are serialized by the lock of the set
+    private final Set<Thread> blocked = ConcurrentHashMap.newKeySet();
+
+    // unit threads running outside of a call of the clock
+    private final AtomicInteger active = new AtomicInteger();
+    private final ReentrantLock pauseLock = new ReentrantLock();
+    private final Condition pauseChanged = pauseLock.newCondition();
+    private volatile boolean paused;
+
+    public WallClock(UnitExecutor executor) {
+        this.executor = executor;
+        cancellation.onCancel(() -> {
+            synchronized (blocked) {
+                for (Thread thread : blocked) {
+                    thread.interrupt();
+                }
+            }
+        });
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void sleep(long millis) {
+        long remaining = untilDeadline();
+        block(() -> TimeUnit.MILLISECONDS.sleep(Math.min(millis, remaining)));
+        if (millis > remaining) {
+            expire();
+        }
+    }
+
+    @Override
+    public Task start(Runnable body) {
+        Task task = new Task(this);
+        executor.execute(() -> {
+            enter();
+            try {
+                if (!cancellation.isCancelled()) {
+                    body.run();
+                }
+            } catch (CancellationException e) {
+                if (!cancellation.isCancelled()) {
+                    throw e;
+                }
+            } finally {
+                task.markDone();
+                leave();
+            }
+        });
+        return task;
+    }
+
+    @Override
+    public void join(Task task) {
+        await(task.finishedLatch());
+    }
+
+    @Override
+    public void await(CountDownLatch latch) {
+        block(() -> {
+            if (!latch.await(untilDeadline(), TimeUnit.MILLISECONDS)) {
+                expire();
+            }
+        });
+    }
+
+    @Override
+    public void awaitUntil(BooleanSupplier condition) {
+        if (condition.getAsBoolean()) {
+            return;
+        }
+        waiting.incrementAndGet();
+        try {
+            block(() -> {
+                signalLock.lock();
+                try {
+                    while (!condition.getAsBoolean()) {
+                        long remaining = untilDeadline();
+                        if (remaining <= 0) {
+                            expire();
+                        }
+                        stateChanged.await(remaining, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    signalLock.unlock();
+                }
+            });
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean awaitUntil(BooleanSupplier condition, long millis) {
+        if (condition.getAsBoolean()) {
+            return true;
+        }
+        long until = currentTimeMillis() + Math.max(0, millis);
+        waiting.incrementAndGet();
+        try {
+            block(() -> {
+                signalLock.lock();
+                try {
+                    while (!condition.getAsBoolean() && currentTimeMillis() < until) {
+                        long remaining = untilDeadline();
+                        if (remaining <= 0) {
+                            expire();
+                        }
+                        stateChanged.await(Math.min(remaining, until - currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    signalLock.unlock();
+                }
+            });
+        } finally {
+            waiting.decrementAndGet();
+        }
+        return condition.getAsBoolean();
+    }
+
+    @Override
+    public void signalAll() {
+        if (waiting.get() == 0) {
+            return;
+        }
+        signalLock.lock();
+        try {
+            stateChanged.signalAll();
+        } finally {
+            signalLock.unlock();
+        }
+    }
+
+    @Override
+    public void pause(Runnable action) {
+        leave();
+        pauseLock.lock();
+        try {
+            // one pause at a time
+            while (paused) {
+                pauseChanged.awaitUninterruptibly();
+            }
+            paused = true;
+            try {
+                while (active.get() > 0) {
+                    pauseChanged.awaitUninterruptibly();
+                }
+                action.run();
+            } finally {
+                paused = false;
+                pauseChanged.signalAll();
+            }
+        } finally {
+            pauseLock.unlock();
+        }
+        enter();
+    }
+
+    @Override
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    @Override
+    public UnitExecutor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void run(Runnable body) {
+        enter();
+        try {
+            body.run();
+        } finally {
+            leave();
+        }
+    }
+
+    /**
+     * Runs a blocking call, which is interrupted if the simulation is cancelled meanwhile.
+     *
+     * @throws CancellationException if the simulation is cancelled, or the thread was interrupted
+     */
+    private void block(Blocking call) {
+        cancellation.throwIfCancelled();
+        Thread thread = Thread.currentThread();
+        blocked.add(thread);
+        leave();
+        try {
+            // a cancellation before the thread was added did not interrupt it
+            if (!cancellation.isCancelled()) {
+                call.run();
+            }
+        } catch (InterruptedException e) {
+            if (!cancellation.isCancelled()) {
+                thread.interrupt();
+                throw new CancellationException("The unit thread was interrupted");
+            }
+        } finally {
+            synchronized (blocked) {
+                blocked.remove(thread);
+                // once out of the set no interrupt can come any more, the one of the
+                // cancellation can arrive after the call returned and must not leak into later calls
+                if (cancellation.isCancelled()) {
+                    Thread.interrupted();
+                }
+            }
+            enter();
+        }
+        cancellation.throwIfCancelled();
+    }
+
+    /**
+     * The calling unit thread starts running outside of the clock,
+     * once the simulation is not paused.
+     */
+    private void enter() {
+        // counted first, so a pause starting meanwhile either sees it or is seen
+        active.incrementAndGet();
+        while (paused) {
+            leave();
+            pauseLock.lock();
+            try {
+                while (paused) {
+                    pauseChanged.awaitUninterruptibly();
+                }
+            } finally {
+                pauseLock.unlock();
+            }
+            active.incrementAndGet();
+        }
+    }
+
+    /**
+     * The calling unit thread stops running outside of the clock.
+     */
+    private void leave() {
+        if (active.decrementAndGet() == 0 && paused) {
+            pauseLock.lock();
+            try {
+                pauseChanged.signalAll();
+            } finally {
+                pauseLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return Milliseconds until the deadline of the simulation
+     */
+    private long untilDeadline() {
+        long deadline = cancellation.getDeadline();
+        return deadline == Cancellation.NO_DEADLINE ? Long.MAX_VALUE : deadline - currentTimeMillis();
+    }
+
+    private void expire() {
+        cancellation.cancel("the deadline was reached");
+        cancellation.throwIfCancelled();
+    }
+
+    private interface Blocking {
+        void run() throws InterruptedException;
+    }
+
+}
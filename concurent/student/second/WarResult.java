@@ -0,0 +1,71 @@
+package concurent.student.second;
+
+/**
+ * Outcome of a war between bases.
+ */
+public class WarResult {
+
+    private final Base winner;
+    private final long startTime;
+    private final long endTime;
+    private final int survivors;
+
+    /**
+     * @param winner    The base that won, null if the armies destroyed each other
+     * @param startTime Time on the clock when the war started
+     * @param endTime   Time on the clock when the last soldier of the losing army died
+     * @param survivors Number of personnel left in the winning army
+     */
+    public WarResult(Base winner, long startTime, long endTime, int survivors) {
+        this.winner = winner;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.survivors = survivors;
+    }
+
+    /**
+     * @return The base that won, null if the armies destroyed each other
+     */
+    public Base getWinner() {
+        return winner;
+    }
+
+    public boolean isDraw() {
+        return winner == null;
+    }
+
+    /**
+     * @param base One of the bases of the war
+     * @return true if the base won the war
+     */
+    public boolean isWonBy(Base base) {
+        return winner == base;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return Milliseconds of simulation time the war took
+     */
+    public long getDuration() {
+        return endTime - startTime;
+    }
+
+    public int getSurvivors() {
+        return survivors;
+    }
+
+    @Override
+    public String toString() {
+        return winner == null
+                ? "The armies destroyed each other in " + getDuration() + " ms"
+                : winner.getName() + " won in " + getDuration() + " ms with " + survivors + " survivors";
+    }
+
+}
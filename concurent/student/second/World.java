@@ -0,0 +1,154 @@
+package concurent.student.second;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Everything the bases of one match share: the clock, the source of
+ * randomness, the log, the metrics, the journal and the battlefield.
+ *
+ * Every base gets its own random generator, split from the seed of the world,
+ * and every unit gets one split from the generator of its base. On a simulated
+ * clock the units take their turns in a fixed order, so a match played
+ * with the same seed is the same match, on any number of cores.
+ *
+ * The battlefield is made when it is first needed, big enough for the number
+ * of bases it was laid out for, two unless told otherwise.
+ */
+public class World {
+
+    private final SimulationClock clock;
+    private final GameLog log;
+    private final Metrics metrics;
+    private final Journal journal;
+    private final long seed;
+    // guarded by the world, restarted when a checkpoint is taken
+    private SplittableRandom seeds;
+    private final UnitStore units = new UnitStore();
+    // the rocks of the battlefield are scattered by a generator split before any other
+    private final SplittableRandom terrain;
+    private int bases = 2;
+    private volatile Battlefield battlefield;
+
+    public World(SimulationClock clock) {
+        this(clock, new Random().nextLong(), GameLog.console());
+    }
+
+    public World(SimulationClock clock, long seed, GameLog log) {
+        this(clock, seed, log, Journal.disabled());
+    }
+
+    public World(SimulationClock clock, long seed, GameLog log, Journal journal) {
+        this.clock = clock;
+        this.log = log;
+        this.journal = journal;
+        this.seed = seed;
+        this.seeds = new SplittableRandom(seed);
+        this.terrain = seeds.split();
+        this.metrics = new Metrics(clock);
+        metrics.gauge("executor.liveTasks", () -> clock.getExecutor().getLiveTasks());
+        metrics.gauge("executor.createdTasks", () -> clock.getExecutor().getCreatedTasks());
+        metrics.gauge("jvm.liveThreads", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+        metrics.gauge("paths.flowFields", () -> battlefield == null ? 0 : battlefield.getFlowFields());
+        metrics.gauge("paths.computedFlowFields", () -> battlefield == null ? 0 : battlefield.getComputedFlowFields());
+    }
+
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    public GameLog getLog() {
+        return log;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return The store of the fighting state of every personnel in the world
+     */
+    public UnitStore getUnits() {
+        return units;
+    }
+
+    /**
+     * @return The map the bases and their personnel stand on
+     */
+    public Battlefield getBattlefield() {
+        Battlefield made = battlefield;
+        if (made == null) {
+            synchronized (this) {
+                made = battlefield;
+                if (made == null) {
+                    made = new Battlefield(bases, terrain);
+                    battlefield = made;
+                }
+            }
+        }
+        return made;
+    }
+
+    /**
+     * Makes the battlefield big enough for a number of bases, before it is first needed.
+     *
+     * @param bases Number of bases to be founded in the world
+     * @throws IllegalStateException if the battlefield was made for fewer bases already
+     */
+    public synchronized void layOutBattlefield(int bases) {
+        if (battlefield != null && bases > this.bases) {
+            throw new IllegalStateException("the battlefield is laid out for " + this.bases + " bases already");
+        }
+        this.bases = Math.max(this.bases, bases);
+    }
+
+    /**
+     * @return The cancellation of everything running in the world
+     */
+    public Cancellation getCancellation() {
+        return clock.getCancellation();
+    }
+
+    /**
+     * @return A new random generator, split from the seed of the world
+     */
+    public synchronized SplittableRandom newRandom() {
+        return seeds.split();
+    }
+
+    /**
+     * @return The seed the world was created with
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Restarts the generator the new ones are split from with a seed drawn
+     * from it, for a {@link Checkpoint}. A generator does not tell its state,
+     * the seed is saved instead.
+     *
+     * @return The seed the generator restarted from
+     */
+    synchronized long reseed() {
+        long next = seeds.nextLong();
+        seeds = new SplittableRandom(next);
+        return next;
+    }
+
+    /**
+     * Restarts the generator the new ones are split from, when a match is
+     * resumed from a {@link Checkpoint}.
+     *
+     * @param next The seed saved by {@link #reseed()}
+     */
+    synchronized void restoreRandom(long next) {
+        seeds = new SplittableRandom(next);
+    }
+
+}